@@ -0,0 +1,74 @@
+/**
+ * A* search over vertex ids. Vertices are queued by their distance from the
+ * source plus a lower bound on the remaining distance to the target: the
+ * great-circle distance to the target scaled by a factor no larger than the
+ * smallest weight-to-distance ratio of any road. Scaled that way the bound
+ * never drops by more than the weight of a road, so each vertex leaves the queue
+ * once, with its final distance, and the search can stop at the target.
+ */
+class AStarSearch {
+
+	private AStarSearch() {
+	}
+
+	/**
+	 * The heuristic scale is the smallest of these ratios over all roads, which
+	 * {@link GraphSnapshot} keeps up to date as roads and towns change.
+	 *
+	 * @return the ratio of a road's weight to the great-circle distance between
+	 *         its ends, or positive infinity if the ends are at one place
+	 */
+	static double ratio(Town a, Town b, int weight) {
+		double distance = a.distanceTo(b);
+		return distance > 0 ? weight / distance : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Searches for a shortest path in a workspace and leaves it in the
+	 * predecessor arrays of the workspace: following previousVertex from the
+	 * target leads back to the source, with previousRoad holding the road of
+	 * each hop. The estimate of each town is computed the first time it is
+	 * reached. The workspace must be reset by the caller.
+	 *
+	 * @param view      the adjacency to search
+	 * @param source    id of the source vertex
+	 * @param target    id of the target vertex, which must have coordinates
+	 * @param scale     heuristic scale of the version searched, greater than 0
+	 * @param workspace the arrays to search in
+	 * @param metrics   where to record the work done, or null
+	 * @return the length of the shortest path, or -1 if the target is unreachable
+	 */
+	static int search(AdjacencyView view, int source, int target, double scale, SearchWorkspace workspace,
+			RoutingMetrics metrics) {
+		int[] distance = workspace.distance;
+		int[] estimate = workspace.scratch();
+		IndexedDaryHeap pq = workspace.queue;
+		Town destination = view.town(target);
+		workspace.start(source);
+
+		int found = -1;
+		while (!pq.isEmpty()) {
+			int visiting = pq.poll();
+			if (visiting == target) {
+				found = distance[target];
+				break;
+			}
+			int base = distance[visiting];
+			for (int i = 0; i < view.degree(visiting); i++) {
+				int neighbor = view.neighbor(visiting, i);
+				int newDistance = base + view.weight(visiting, i);
+				if (newDistance < distance[neighbor]) {
+					if (!workspace.reached(neighbor)) {
+						estimate[neighbor] = (int) (scale * view.town(neighbor).distanceTo(destination));
+					}
+					workspace.reach(neighbor, newDistance, visiting, view.road(visiting, i));
+					pq.offer(neighbor, newDistance + estimate[neighbor]);
+				}
+			}
+		}
+		if (metrics != null) {
+			metrics.searched(pq);
+		}
+		return found;
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * Read access to the adjacency of a graph whose vertices have been interned to
+ * dense int ids. Ids run from 0 (inclusive) to vertexCapacity() (exclusive); an
+ * id that is not in use has no town and no arcs. The arcs leaving a vertex are
+ * numbered 0 to degree - 1.
+ */
+interface AdjacencyView {
+
+	/**
+	 * @return one more than the largest vertex id that may be in use
+	 */
+	int vertexCapacity();
+
+	/**
+	 * @param id vertex id
+	 * @return the town with the given id, or null if the id is not in use
+	 */
+	Town town(int id);
+
+	/**
+	 * @param id vertex id
+	 * @return number of arcs leaving the vertex
+	 */
+	int degree(int id);
+
+	/**
+	 * @param id    vertex id
+	 * @param index arc number, from 0 to degree - 1
+	 * @return id of the vertex at the other end of the arc
+	 */
+	int neighbor(int id, int index);
+
+	/**
+	 * @param id    vertex id
+	 * @param index arc number, from 0 to degree - 1
+	 * @return weight of the arc
+	 */
+	int weight(int id, int index);
+
+	/**
+	 * @param id    vertex id
+	 * @param index arc number, from 0 to degree - 1
+	 * @return the road the arc belongs to
+	 */
+	Road road(int id, int index);
+}
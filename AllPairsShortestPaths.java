@@ -0,0 +1,294 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Precomputed shortest distances and next hops between every pair of vertices
+ * of a {@link Graph}. The vertices in use are numbered densely from 0 to size -
+ * 1, and the results are kept in two flat size-by-size int matrices: dist[i *
+ * size + j] is the length of a shortest path from i to j and next[i * size + j]
+ * the vertex that path visits after i. A path is read off by following next
+ * hops, without searching.
+ *
+ * Dense graphs are solved with Floyd-Warshall, blocked into 64-by-64 tiles so
+ * each step works on tiles that stay in cache. For each diagonal tile the tile
+ * itself is relaxed first, then the tiles in its row and column in parallel,
+ * then all remaining tiles in parallel. Sparse graphs are solved with one
+ * Dijkstra search per vertex, the searches running in parallel; that costs
+ * about size * arcs * log(size) instead of size^3, so Floyd-Warshall is only
+ * chosen when arcs * log2(size) reaches size^2.
+ *
+ * Both matrices take 8 * size^2 bytes, about 200 MB for 5,000 towns. Path
+ * lengths must stay below 2^30 so two of them can be added without overflow.
+ *
+ * The engine records the modification count of the graph it was built from so
+ * the graph can tell when it is no longer current.
+ */
+class AllPairsShortestPaths {
+	/**
+	 * Returned by shortestPath when following next hops does not reach the target
+	 * within size hops, which only roads of weight 0 can cause.
+	 */
+	static final int NO_CONSISTENT_PATH = -2;
+
+	private static final int BLOCK = 64;
+	private static final int INFINITY = Integer.MAX_VALUE / 2;
+	private static final int SOURCES_PER_TASK = 16;
+
+	private final AdjacencyView view;
+	private final long version;
+	private final int[] index;
+	private final int[] ids;
+	private final int size;
+	private final int[] dist;
+	private final int[] next;
+	private final boolean floydWarshall;
+
+	/**
+	 * Computes all pairs, choosing the algorithm by density.
+	 *
+	 * @param view    the adjacency to solve
+	 * @param version modification count of the graph at build time
+	 * @param pool    the pool to run on
+	 */
+	AllPairsShortestPaths(AdjacencyView view, long version, ForkJoinPool pool) {
+		this.view = view;
+		this.version = version;
+		int capacity = view.vertexCapacity();
+		index = new int[capacity];
+		int count = 0;
+		long arcs = 0;
+		for (int id = 0; id < capacity; id++) {
+			if (view.town(id) == null) {
+				index[id] = -1;
+			} else {
+				index[id] = count++;
+				arcs += view.degree(id);
+			}
+		}
+		size = count;
+		ids = new int[size];
+		for (int id = 0; id < capacity; id++) {
+			if (index[id] != -1) {
+				ids[index[id]] = id;
+			}
+		}
+		if ((long) size * size > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Too many vertices for an all-pairs table.");
+		}
+		dist = new int[size * size];
+		next = new int[size * size];
+		int log = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1));
+		floydWarshall = arcs * log >= (long) size * size;
+		if (floydWarshall) {
+			floydWarshall(pool);
+		} else {
+			repeatedDijkstra(pool);
+		}
+	}
+
+	long version() {
+		return version;
+	}
+
+	/**
+	 * @return true if the table was built with Floyd-Warshall, false if with
+	 *         repeated Dijkstra
+	 */
+	boolean usesFloydWarshall() {
+		return floydWarshall;
+	}
+
+	/**
+	 * @param source id of the source vertex
+	 * @param target id of the target vertex
+	 * @return the length of a shortest path, or -1 if there is none
+	 */
+	int distance(int source, int target) {
+		int d = dist[index[source] * size + index[target]];
+		return d >= INFINITY ? -1 : d;
+	}
+
+	/**
+	 * Lists the towns and roads of a shortest path in order from source to
+	 * target by following next hops.
+	 *
+	 * @param source id of the source vertex
+	 * @param target id of the target vertex
+	 * @param path   receives the towns of the path, starting with the source
+	 * @param roads  receives the roads of the path, one fewer than the towns
+	 * @return the length of the path, -1 if the target is unreachable, or
+	 *         {@link #NO_CONSISTENT_PATH} with both lists left empty
+	 */
+	int shortestPath(int source, int target, List<Town> path, List<Road> roads) {
+		int from = index[source];
+		int to = index[target];
+		if (dist[from * size + to] >= INFINITY) {
+			return -1;
+		}
+		path.add(view.town(source));
+		int hops = 0;
+		for (int u = from; u != to; u = next[u * size + to]) {
+			if (++hops > size) {
+				path.clear();
+				roads.clear();
+				return NO_CONSISTENT_PATH;
+			}
+			int v = next[u * size + to];
+			roads.add(road(ids[u], ids[v]));
+			path.add(view.town(ids[v]));
+		}
+		return dist[from * size + to];
+	}
+
+	/**
+	 * @return the lightest road joining two adjacent vertices
+	 */
+	private Road road(int from, int to) {
+		Road best = null;
+		for (int i = 0; i < view.degree(from); i++) {
+			if (view.neighbor(from, i) == to && (best == null || view.weight(from, i) < best.getWeight())) {
+				best = view.road(from, i);
+			}
+		}
+		return best;
+	}
+
+	private void floydWarshall(ForkJoinPool pool) {
+		Arrays.fill(dist, INFINITY);
+		Arrays.fill(next, -1);
+		for (int i = 0; i < size; i++) {
+			int id = ids[i];
+			dist[i * size + i] = 0;
+			next[i * size + i] = i;
+			for (int a = 0; a < view.degree(id); a++) {
+				int j = index[view.neighbor(id, a)];
+				if (j != i && view.weight(id, a) < dist[i * size + j]) {
+					dist[i * size + j] = view.weight(id, a);
+					next[i * size + j] = j;
+				}
+			}
+		}
+
+		int blocks = (size + BLOCK - 1) / BLOCK;
+		for (int kb = 0; kb < blocks; kb++) {
+			int pivot = kb;
+			relaxBlock(pivot, pivot, pivot);
+			List<Runnable> cross = new ArrayList<>();
+			for (int b = 0; b < blocks; b++) {
+				if (b != pivot) {
+					int other = b;
+					cross.add(() -> relaxBlock(pivot, other, pivot));
+					cross.add(() -> relaxBlock(other, pivot, pivot));
+				}
+			}
+			runAll(pool, cross);
+			List<Runnable> rest = new ArrayList<>();
+			for (int ib = 0; ib < blocks; ib++) {
+				if (ib != pivot) {
+					int row = ib;
+					rest.add(() -> {
+						for (int jb = 0; jb < blocks; jb++) {
+							if (jb != pivot) {
+								relaxBlock(row, jb, pivot);
+							}
+						}
+					});
+				}
+			}
+			runAll(pool, rest);
+		}
+	}
+
+	/**
+	 * Relaxes the tile in block row ib and block column jb through every vertex of
+	 * block kb.
+	 */
+	private void relaxBlock(int ib, int jb, int kb) {
+		int iEnd = Math.min((ib + 1) * BLOCK, size);
+		int jStart = jb * BLOCK;
+		int jEnd = Math.min(jStart + BLOCK, size);
+		int kEnd = Math.min((kb + 1) * BLOCK, size);
+		for (int k = kb * BLOCK; k < kEnd; k++) {
+			int rowK = k * size;
+			for (int i = ib * BLOCK; i < iEnd; i++) {
+				int rowI = i * size;
+				int throughK = dist[rowI + k];
+				if (throughK >= INFINITY) {
+					continue;
+				}
+				int hop = next[rowI + k];
+				for (int j = jStart; j < jEnd; j++) {
+					int candidate = throughK + dist[rowK + j];
+					if (candidate < dist[rowI + j]) {
+						dist[rowI + j] = candidate;
+						next[rowI + j] = hop;
+					}
+				}
+			}
+		}
+	}
+
+	private void repeatedDijkstra(ForkJoinPool pool) {
+		SearchWorkspace.Pool workspaces = new SearchWorkspace.Pool(view.vertexCapacity());
+		List<Runnable> tasks = new ArrayList<>();
+		for (int first = 0; first < size; first += SOURCES_PER_TASK) {
+			int from = first;
+			int to = Math.min(first + SOURCES_PER_TASK, size);
+			tasks.add(() -> {
+				SearchWorkspace workspace = workspaces.take();
+				for (int row = from; row < to; row++) {
+					dijkstra(row, workspace);
+					workspace.reset();
+				}
+				workspaces.give(workspace);
+			});
+		}
+		runAll(pool, tasks);
+	}
+
+	/**
+	 * Fills one row of both matrices. The first hop towards each vertex is found
+	 * when the vertex is settled, from the first hop of its predecessor.
+	 */
+	private void dijkstra(int row, SearchWorkspace workspace) {
+		int[] distance = workspace.distance;
+		int[] previous = workspace.previousVertex;
+		int[] firstHop = workspace.scratch();
+		int source = ids[row];
+		workspace.start(source);
+		workspace.dijkstra(view, visiting -> {
+			if (visiting != source) {
+				firstHop[visiting] = previous[visiting] == source ? visiting : firstHop[previous[visiting]];
+			}
+			return false;
+		});
+
+		int offset = row * size;
+		for (int j = 0; j < size; j++) {
+			int id = ids[j];
+			if (distance[id] == Integer.MAX_VALUE) {
+				dist[offset + j] = INFINITY;
+				next[offset + j] = -1;
+			} else {
+				dist[offset + j] = distance[id];
+				next[offset + j] = id == source ? row : index[firstHop[id]];
+			}
+		}
+	}
+
+	/**
+	 * Runs tasks on a pool and waits for all of them.
+	 */
+	private static void runAll(ForkJoinPool pool, List<Runnable> tasks) {
+		List<ForkJoinTask<?>> running = new ArrayList<>(tasks.size());
+		for (Runnable task : tasks) {
+			running.add(pool.submit(task));
+		}
+		for (ForkJoinTask<?> task : running) {
+			task.join();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Bidirectional Dijkstra over vertex ids. A forward search from the source and
+ * a backward search from the target take turns settling the vertex with the
+ * smaller tentative distance. Every time a vertex is reached from one side with
+ * a finite distance on the other, the sum is a candidate path length; the search
+ * stops when the two queue minimums together can no longer beat the best
+ * candidate.
+ */
+class BidirectionalDijkstra {
+
+	private BidirectionalDijkstra() {
+	}
+
+	/**
+	 * Searches for a shortest path and leaves it in the predecessor arrays of the
+	 * forward workspace, in the same form a forward Dijkstra leaves them in:
+	 * following previousVertex from the target leads back to the source, with
+	 * previousRoad holding the road of each hop. Entries for vertices off the
+	 * path are meaningless. Both workspaces must be reset by the caller.
+	 *
+	 * @param view     the adjacency to search
+	 * @param source   id of the source vertex
+	 * @param target   id of the target vertex, different from the source
+	 * @param forward  workspace of the search from the source
+	 * @param backward workspace of the search from the target
+	 * @param metrics  where to record the work done, or null
+	 * @return the length of the shortest path, or -1 if the target is unreachable
+	 */
+	static int search(AdjacencyView view, int source, int target, SearchWorkspace forward, SearchWorkspace backward,
+			RoutingMetrics metrics) {
+		forward.start(source);
+		backward.start(target);
+
+		long best = Long.MAX_VALUE;
+		int meeting = -1;
+		while (!forward.queue.isEmpty() && !backward.queue.isEmpty()) {
+			if ((long) forward.queue.peekKey() + backward.queue.peekKey() >= best) {
+				break;
+			}
+			boolean forwardTurn = forward.queue.peekKey() <= backward.queue.peekKey();
+			SearchWorkspace side = forwardTurn ? forward : backward;
+			int[] otherDistance = forwardTurn ? backward.distance : forward.distance;
+
+			int visiting = side.queue.poll();
+			int base = side.distance[visiting];
+			for (int i = 0; i < view.degree(visiting); i++) {
+				int neighbor = view.neighbor(visiting, i);
+				int newDistance = base + view.weight(visiting, i);
+				if (newDistance < side.distance[neighbor]) {
+					side.reach(neighbor, newDistance, visiting, view.road(visiting, i));
+					side.queue.offer(neighbor, newDistance);
+					if (otherDistance[neighbor] != Integer.MAX_VALUE
+							&& (long) newDistance + otherDistance[neighbor] < best) {
+						best = (long) newDistance + otherDistance[neighbor];
+						meeting = neighbor;
+					}
+				}
+			}
+		}
+		if (metrics != null) {
+			metrics.searched(forward.queue);
+			metrics.searched(backward.queue);
+		}
+
+		if (meeting == -1) {
+			return -1;
+		}
+		// Walk the backward half from the meeting vertex to the target, turning
+		// its successors into forward predecessors.
+		for (int current = meeting; current != target; current = backward.previousVertex[current]) {
+			int next = backward.previousVertex[current];
+			Road road = backward.previousRoad[current];
+			forward.reach(next, forward.distance[current] + road.getWeight(), current, road);
+		}
+		return (int) best;
+	}
+}
@@ -0,0 +1,419 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Contraction Hierarchies preprocessing and query engine for a {@link Graph}.
+ *
+ * Preprocessing removes ("contracts") vertices one at a time, least important
+ * first, where importance is the number of shortcuts contracting the vertex
+ * would add minus the roads it would remove, plus how many of its neighbors are
+ * already contracted. When a vertex is contracted, every pair of its remaining
+ * neighbors whose only shortest connection runs through it gets a shortcut with
+ * the combined weight. Each vertex keeps the edges it had when it was
+ * contracted; these all lead to vertices contracted later, i.e. upward in the
+ * hierarchy.
+ *
+ * A query runs Dijkstra upward from both ends and meets at the highest vertex
+ * of the shortest path. Shortcuts on the resulting path are then unpacked into
+ * the roads they stand for.
+ *
+ * The hierarchy records the modification count of the graph it was built from
+ * so the graph can tell when it is no longer current.
+ */
+class ContractionHierarchy {
+	private static final int WITNESS_SETTLE_LIMIT = 500;
+
+	private final Town[] towns;
+	private final long version;
+	private final int[] upOffsets;
+	private final int[] upSources;
+	private final int[] upTargets;
+	private final int[] upWeights;
+	private final int[] upMiddles;
+	private final Road[] upRoads;
+	private final ThreadLocal<Workspace> workspaces;
+
+	/**
+	 * An edge of the graph being contracted: a road when middle is -1, otherwise
+	 * a shortcut through the vertex middle.
+	 */
+	private static final class Edge {
+		final int to;
+		int weight;
+		int middle;
+		Road road;
+
+		Edge(int to, int weight, int middle, Road road) {
+			this.to = to;
+			this.weight = weight;
+			this.middle = middle;
+			this.road = road;
+		}
+	}
+
+	/**
+	 * Per-thread search arrays, reset through the list of touched ids so a query
+	 * costs time proportional to the vertices it reaches rather than the graph
+	 * size.
+	 */
+	private static final class Workspace {
+		final int[] forwardDistance;
+		final int[] backwardDistance;
+		final int[] forwardEdge;
+		final int[] backwardEdge;
+		final IndexedDaryHeap forward;
+		final IndexedDaryHeap backward;
+		final int[] touched;
+		int touchedCount;
+
+		Workspace(int capacity) {
+			forwardDistance = new int[capacity];
+			backwardDistance = new int[capacity];
+			forwardEdge = new int[capacity];
+			backwardEdge = new int[capacity];
+			Arrays.fill(forwardDistance, Integer.MAX_VALUE);
+			Arrays.fill(backwardDistance, Integer.MAX_VALUE);
+			forward = new IndexedDaryHeap(capacity);
+			backward = new IndexedDaryHeap(capacity);
+			touched = new int[capacity];
+		}
+
+		void touch(int id) {
+			if (forwardDistance[id] == Integer.MAX_VALUE && backwardDistance[id] == Integer.MAX_VALUE) {
+				touched[touchedCount++] = id;
+			}
+		}
+
+		void reset() {
+			for (int i = 0; i < touchedCount; i++) {
+				forwardDistance[touched[i]] = Integer.MAX_VALUE;
+				backwardDistance[touched[i]] = Integer.MAX_VALUE;
+			}
+			touchedCount = 0;
+			forward.clear();
+			backward.clear();
+		}
+	}
+
+	/**
+	 * Contracts every vertex of the adjacency and builds the upward search graph.
+	 *
+	 * @param adjacency adjacency of the graph
+	 * @param version   modification count of the graph at build time
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	ContractionHierarchy(AdjacencyView adjacency, long version) {
+		int capacity = adjacency.vertexCapacity();
+		this.version = version;
+		towns = new Town[capacity];
+		ArrayList<Edge>[] edges = new ArrayList[capacity];
+		for (int v = 0; v < capacity; v++) {
+			towns[v] = adjacency.town(v);
+			edges[v] = new ArrayList<>(adjacency.degree(v));
+		}
+		for (int v = 0; v < capacity; v++) {
+			for (int i = 0; i < adjacency.degree(v); i++) {
+				int w = adjacency.neighbor(v, i);
+				if (w != v) {
+					link(edges, v, w, adjacency.weight(v, i), -1, adjacency.road(v, i));
+				}
+			}
+		}
+
+		boolean[] contracted = new boolean[capacity];
+		int[] contractedNeighbors = new int[capacity];
+		int[] witnessDistance = new int[capacity];
+		Arrays.fill(witnessDistance, Integer.MAX_VALUE);
+		IndexedDaryHeap witnessQueue = new IndexedDaryHeap(capacity);
+		IndexedDaryHeap order = new IndexedDaryHeap(capacity);
+		for (int v = 0; v < capacity; v++) {
+			if (towns[v] != null) {
+				order.offer(v, importance(edges, v, contracted, contractedNeighbors, witnessDistance, witnessQueue));
+			}
+		}
+
+		ArrayList<Edge>[] upward = new ArrayList[capacity];
+		while (!order.isEmpty()) {
+			int v = order.poll();
+			int current = importance(edges, v, contracted, contractedNeighbors, witnessDistance, witnessQueue);
+			if (!order.isEmpty() && current > order.peekKey()) {
+				order.offer(v, current);
+				continue;
+			}
+			contract(edges, v, contracted, witnessDistance, witnessQueue, false);
+			contracted[v] = true;
+			upward[v] = edges[v];
+			for (Edge e : edges[v]) {
+				contractedNeighbors[e.to]++;
+				removeEdge(edges[e.to], v);
+			}
+			edges[v] = null;
+		}
+
+		upOffsets = new int[capacity + 1];
+		int total = 0;
+		for (int v = 0; v < capacity; v++) {
+			upOffsets[v] = total;
+			total += upward[v] == null ? 0 : upward[v].size();
+		}
+		upOffsets[capacity] = total;
+		upSources = new int[total];
+		upTargets = new int[total];
+		upWeights = new int[total];
+		upMiddles = new int[total];
+		upRoads = new Road[total];
+		for (int v = 0; v < capacity; v++) {
+			if (upward[v] == null) {
+				continue;
+			}
+			int index = upOffsets[v];
+			for (Edge e : upward[v]) {
+				upSources[index] = v;
+				upTargets[index] = e.to;
+				upWeights[index] = e.weight;
+				upMiddles[index] = e.middle;
+				upRoads[index] = e.road;
+				index++;
+			}
+		}
+		workspaces = ThreadLocal.withInitial(() -> new Workspace(towns.length));
+	}
+
+	long version() {
+		return version;
+	}
+
+	/**
+	 * Finds a shortest path and lists its towns and roads in order from source to
+	 * target, with shortcuts expanded into the roads they stand for.
+	 *
+	 * @param source  id of the source vertex
+	 * @param target  id of the target vertex
+	 * @param path    receives the towns of the path, starting with the source
+	 * @param roads   receives the roads of the path, one fewer than the towns
+	 * @param metrics where to record the work done, or null
+	 * @return the length of the path, or -1 if the target is unreachable
+	 */
+	int shortestPath(int source, int target, List<Town> path, List<Road> roads, RoutingMetrics metrics) {
+		Workspace ws = workspaces.get();
+		ws.forward.resetCounts();
+		ws.backward.resetCounts();
+		ws.touch(source);
+		ws.forwardDistance[source] = 0;
+		ws.forwardEdge[source] = -1;
+		ws.forward.offer(source, 0);
+		ws.touch(target);
+		ws.backwardDistance[target] = 0;
+		ws.backwardEdge[target] = -1;
+		ws.backward.offer(target, 0);
+
+		long best = Long.MAX_VALUE;
+		int meeting = -1;
+		while (!ws.forward.isEmpty() || !ws.backward.isEmpty()) {
+			boolean forwardTurn = ws.backward.isEmpty()
+					|| (!ws.forward.isEmpty() && ws.forward.peekKey() <= ws.backward.peekKey());
+			IndexedDaryHeap pq = forwardTurn ? ws.forward : ws.backward;
+			if (pq.peekKey() >= best) {
+				pq.clear();
+				continue;
+			}
+			int[] distance = forwardTurn ? ws.forwardDistance : ws.backwardDistance;
+			int[] otherDistance = forwardTurn ? ws.backwardDistance : ws.forwardDistance;
+			int[] reachedBy = forwardTurn ? ws.forwardEdge : ws.backwardEdge;
+
+			int v = pq.poll();
+			if (otherDistance[v] != Integer.MAX_VALUE && (long) distance[v] + otherDistance[v] < best) {
+				best = (long) distance[v] + otherDistance[v];
+				meeting = v;
+			}
+			for (int e = upOffsets[v]; e < upOffsets[v + 1]; e++) {
+				int w = upTargets[e];
+				int newDistance = distance[v] + upWeights[e];
+				if (newDistance < distance[w]) {
+					ws.touch(w);
+					distance[w] = newDistance;
+					reachedBy[w] = e;
+					pq.offer(w, newDistance);
+				}
+			}
+		}
+
+		if (metrics != null) {
+			metrics.searched(ws.forward);
+			metrics.searched(ws.backward);
+		}
+
+		if (meeting != -1) {
+			ArrayList<Integer> upFromSource = new ArrayList<>();
+			for (int v = meeting; ws.forwardEdge[v] != -1; v = upSources[ws.forwardEdge[v]]) {
+				upFromSource.add(ws.forwardEdge[v]);
+			}
+			path.add(towns[source]);
+			int at = source;
+			for (int i = upFromSource.size() - 1; i >= 0; i--) {
+				at = unpack(upFromSource.get(i), at, path, roads);
+			}
+			for (int v = meeting; ws.backwardEdge[v] != -1;) {
+				int e = ws.backwardEdge[v];
+				at = unpack(e, at, path, roads);
+				v = at;
+			}
+		}
+		ws.reset();
+		return meeting == -1 ? -1 : (int) best;
+	}
+
+	/**
+	 * Appends the roads of upward edge e, walked starting from vertex from, which
+	 * is one of its two ends.
+	 *
+	 * @return the vertex at the other end
+	 */
+	private int unpack(int e, int from, List<Town> path, List<Road> roads) {
+		int to = upSources[e] == from ? upTargets[e] : upSources[e];
+		int middle = upMiddles[e];
+		if (middle == -1) {
+			roads.add(upRoads[e]);
+			path.add(towns[to]);
+			return to;
+		}
+		unpack(edgeBetween(middle, from), from, path, roads);
+		unpack(edgeBetween(middle, to), middle, path, roads);
+		return to;
+	}
+
+	/**
+	 * @return the upward edge of the lower vertex that leads to the higher one
+	 */
+	private int edgeBetween(int lower, int higher) {
+		for (int e = upOffsets[lower]; e < upOffsets[lower + 1]; e++) {
+			if (upTargets[e] == higher) {
+				return e;
+			}
+		}
+		throw new IllegalStateException("Shortcut refers to a missing edge.");
+	}
+
+	/**
+	 * Priority of a vertex for contraction: the shortcuts it would add minus the
+	 * edges it would remove, plus its already contracted neighbors so the
+	 * contraction spreads evenly over the graph.
+	 */
+	private static int importance(ArrayList<Edge>[] edges, int v, boolean[] contracted, int[] contractedNeighbors,
+			int[] witnessDistance, IndexedDaryHeap witnessQueue) {
+		int shortcuts = contract(edges, v, contracted, witnessDistance, witnessQueue, true);
+		return shortcuts - edges[v].size() + contractedNeighbors[v];
+	}
+
+	/**
+	 * Adds the shortcuts needed to contract v, or only counts them when
+	 * simulating. A pair of neighbors needs a shortcut unless a witness search
+	 * that avoids v finds a path at most as long as the one through v.
+	 *
+	 * @return the number of shortcuts needed
+	 */
+	private static int contract(ArrayList<Edge>[] edges, int v, boolean[] contracted, int[] witnessDistance,
+			IndexedDaryHeap witnessQueue, boolean simulate) {
+		ArrayList<Edge> around = edges[v];
+		int shortcuts = 0;
+		// The last neighbor has no pair left to check. Roads of weight 0 make a
+		// maximum of 0 possible, so that cannot be the test.
+		for (int i = 0; i < around.size() - 1; i++) {
+			Edge in = around.get(i);
+			int maxDistance = 0;
+			for (int j = i + 1; j < around.size(); j++) {
+				maxDistance = Math.max(maxDistance, in.weight + around.get(j).weight);
+			}
+			ArrayList<Integer> reached = witnessSearch(edges, in.to, v, maxDistance, witnessDistance, witnessQueue);
+			for (int j = i + 1; j < around.size(); j++) {
+				Edge out = around.get(j);
+				int through = in.weight + out.weight;
+				if (witnessDistance[out.to] > through) {
+					shortcuts++;
+					if (!simulate) {
+						link(edges, in.to, out.to, through, v, null);
+					}
+				}
+			}
+			for (int u : reached) {
+				witnessDistance[u] = Integer.MAX_VALUE;
+			}
+		}
+		return shortcuts;
+	}
+
+	/**
+	 * Bounded Dijkstra from start that skips the vertex being contracted and stops
+	 * past maxDistance or after settling a fixed number of vertices. Distances it
+	 * does not reach stay at Integer.MAX_VALUE, which only ever adds a shortcut
+	 * that was not strictly needed.
+	 *
+	 * @return the vertices whose witness distance was set, for resetting
+	 */
+	private static ArrayList<Integer> witnessSearch(ArrayList<Edge>[] edges, int start, int avoid, int maxDistance,
+			int[] witnessDistance, IndexedDaryHeap queue) {
+		ArrayList<Integer> reached = new ArrayList<>();
+		witnessDistance[start] = 0;
+		reached.add(start);
+		queue.offer(start, 0);
+		int settled = 0;
+		while (!queue.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+			int u = queue.poll();
+			settled++;
+			if (witnessDistance[u] > maxDistance) {
+				break;
+			}
+			for (Edge e : edges[u]) {
+				if (e.to == avoid) {
+					continue;
+				}
+				int newDistance = witnessDistance[u] + e.weight;
+				if (newDistance < witnessDistance[e.to]) {
+					if (witnessDistance[e.to] == Integer.MAX_VALUE) {
+						reached.add(e.to);
+					}
+					witnessDistance[e.to] = newDistance;
+					queue.offer(e.to, newDistance);
+				}
+			}
+		}
+		queue.clear();
+		return reached;
+	}
+
+	/**
+	 * Adds an undirected edge, or lowers the weight of the existing edge between
+	 * the same two vertices if the new one is shorter.
+	 */
+	private static void link(ArrayList<Edge>[] edges, int a, int b, int weight, int middle, Road road) {
+		for (Edge e : edges[a]) {
+			if (e.to == b) {
+				if (weight < e.weight) {
+					e.weight = weight;
+					e.middle = middle;
+					e.road = road;
+					for (Edge back : edges[b]) {
+						if (back.to == a) {
+							back.weight = weight;
+							back.middle = middle;
+							back.road = road;
+						}
+					}
+				}
+				return;
+			}
+		}
+		edges[a].add(new Edge(b, weight, middle, road));
+		edges[b].add(new Edge(a, weight, middle, road));
+	}
+
+	private static void removeEdge(ArrayList<Edge> list, int to) {
+		for (int i = 0; i < list.size(); i++) {
+			if (list.get(i).to == to) {
+				list.remove(i);
+				return;
+			}
+		}
+	}
+}
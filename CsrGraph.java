@@ -0,0 +1,93 @@
+/**
+ * Immutable compressed-sparse-row view of a {@link Graph}. The neighbors of
+ * vertex i are stored contiguously in neighbors[offsets[i]] up to
+ * neighbors[offsets[i + 1] - 1], with the matching weight and road at the same
+ * positions, so a search walks flat arrays instead of per-vertex lists. Vertex
+ * ids are the ones the graph assigned, so ids and towns can be passed between
+ * the graph and its view without translation.
+ *
+ * The view records the modification count of the graph it was built from so
+ * the graph can tell when it is no longer current.
+ */
+class CsrGraph implements AdjacencyView {
+	private final Town[] towns;
+	private final int[] offsets;
+	private final int[] neighbors;
+	private final int[] weights;
+	private final Road[] roads;
+	private final long version;
+
+	/**
+	 * Builds the view from the graph's adjacency. Self loops are dropped since
+	 * they can never be part of a shortest path.
+	 *
+	 * @param adjacency adjacency of the graph
+	 * @param version   modification count of the graph at build time
+	 */
+	CsrGraph(AdjacencyView adjacency, long version) {
+		int capacity = adjacency.vertexCapacity();
+		this.version = version;
+		towns = new Town[capacity];
+		offsets = new int[capacity + 1];
+
+		int arcCount = 0;
+		for (int v = 0; v < capacity; v++) {
+			towns[v] = adjacency.town(v);
+			for (int i = 0; i < adjacency.degree(v); i++) {
+				if (adjacency.neighbor(v, i) != v)
+					arcCount++;
+			}
+		}
+
+		neighbors = new int[arcCount];
+		weights = new int[arcCount];
+		roads = new Road[arcCount];
+		int arc = 0;
+		for (int v = 0; v < capacity; v++) {
+			offsets[v] = arc;
+			for (int i = 0; i < adjacency.degree(v); i++) {
+				if (adjacency.neighbor(v, i) == v)
+					continue;
+				neighbors[arc] = adjacency.neighbor(v, i);
+				weights[arc] = adjacency.weight(v, i);
+				roads[arc] = adjacency.road(v, i);
+				arc++;
+			}
+		}
+		offsets[capacity] = arc;
+	}
+
+	long version() {
+		return version;
+	}
+
+	@Override
+	public int vertexCapacity() {
+		return towns.length;
+	}
+
+	@Override
+	public Town town(int id) {
+		return towns[id];
+	}
+
+	@Override
+	public int degree(int id) {
+		return offsets[id + 1] - offsets[id];
+	}
+
+	@Override
+	public int neighbor(int id, int index) {
+		return neighbors[offsets[id] + index];
+	}
+
+	@Override
+	public int weight(int id, int index) {
+		return weights[offsets[id] + index];
+	}
+
+	@Override
+	public Road road(int id, int index) {
+		return roads[offsets[id] + index];
+	}
+}
@@ -0,0 +1,275 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parallel single-source shortest paths by delta-stepping (Meyer and Sanders).
+ * Tentative distances are kept in buckets of width delta. The lowest non-empty
+ * bucket is emptied in rounds: every vertex in it has its light arcs (weight at
+ * most delta) relaxed in parallel, which can only refill the same bucket or
+ * later ones. Once the bucket stays empty, the heavy arcs of every vertex it
+ * held are relaxed in parallel, and the search moves to the next bucket. A
+ * small delta approaches Dijkstra, with little wasted work but little
+ * parallelism; a large one approaches Bellman-Ford. The average road weight is
+ * a reasonable start.
+ *
+ * Distances are lowered with compare-and-set on a word that packs the distance
+ * with the vertex it came from, so concurrent relaxations of the same vertex
+ * never lose an update. The resulting distances are exactly those of Dijkstra.
+ * Each vertex is then given the smallest-id neighbor that lies on a shortest
+ * path to it, so the tree is the same on every run; where several paths tie,
+ * it may differ from the one sequential Dijkstra picks.
+ */
+class DeltaStepping {
+	private static final int CHUNK = 512;
+	private static final long UNREACHED = Long.MAX_VALUE;
+
+	private final AdjacencyView view;
+	private final int delta;
+	private final ForkJoinPool pool;
+	private final AtomicLongArray best;
+	private final LongAdder relaxations = new LongAdder();
+	private final LongAdder workNanos = new LongAdder();
+	private int buckets;
+	private int phases;
+
+	/**
+	 * Growable list of vertex ids.
+	 */
+	private static final class IntList {
+		int[] items = new int[16];
+		int size;
+
+		void add(int item) {
+			if (size == items.length) {
+				items = Arrays.copyOf(items, size * 2);
+			}
+			items[size++] = item;
+		}
+	}
+
+	/**
+	 * @param view  the adjacency to search
+	 * @param delta width of a bucket, at least 1
+	 * @param pool  the pool to relax arcs on
+	 */
+	DeltaStepping(AdjacencyView view, int delta, ForkJoinPool pool) {
+		if (delta < 1) {
+			throw new IllegalArgumentException("Delta must be at least 1.");
+		}
+		this.view = view;
+		this.delta = delta;
+		this.pool = pool;
+		this.best = new AtomicLongArray(view.vertexCapacity());
+	}
+
+	/**
+	 * Builds the complete shortest path tree from a source. An instance runs one
+	 * search.
+	 *
+	 * @param source id of the source vertex
+	 * @return the distances and predecessors found
+	 */
+	ShortestPathTree search(int source) {
+		int capacity = view.vertexCapacity();
+		for (int i = 0; i < capacity; i++) {
+			best.set(i, UNREACHED);
+		}
+		best.set(source, pack(0, source));
+		int maxWeight = 0;
+		for (int v = 0; v < capacity; v++) {
+			for (int i = 0; i < view.degree(v); i++) {
+				maxWeight = Math.max(maxWeight, view.weight(v, i));
+			}
+		}
+
+		// A relaxation from bucket b lands at most maxWeight / delta + 1 buckets
+		// later, so this many lists can be reused cyclically.
+		IntList[] lists = new IntList[maxWeight / delta + 2];
+		for (int i = 0; i < lists.length; i++) {
+			lists[i] = new IntList();
+		}
+		int[] queuedIn = new int[capacity];
+		int[] heldIn = new int[capacity];
+		Arrays.fill(queuedIn, -1);
+		Arrays.fill(heldIn, -1);
+		lists[0].add(source);
+		queuedIn[source] = 0;
+		long pending = 1;
+
+		int bucket = 0;
+		IntList held = new IntList();
+		while (pending > 0) {
+			while (lists[bucket % lists.length].size == 0) {
+				bucket++;
+			}
+			buckets++;
+			held.size = 0;
+			while (lists[bucket % lists.length].size > 0) {
+				IntList taken = lists[bucket % lists.length];
+				lists[bucket % lists.length] = new IntList();
+				pending -= taken.size;
+				IntList frontier = new IntList();
+				for (int i = 0; i < taken.size; i++) {
+					int v = taken.items[i];
+					if (queuedIn[v] == bucket && distance(v) / delta == bucket) {
+						queuedIn[v] = -1;
+						frontier.add(v);
+						if (heldIn[v] != bucket) {
+							heldIn[v] = bucket;
+							held.add(v);
+						}
+					}
+				}
+				if (frontier.size > 0) {
+					phases++;
+					pending += enqueue(relax(frontier, true), lists, queuedIn);
+				}
+			}
+			pending += enqueue(relax(held, false), lists, queuedIn);
+			bucket++;
+		}
+		return tree(source);
+	}
+
+	/**
+	 * @return the statistics of the search run so far
+	 */
+	DeltaSteppingStatistics statistics(long elapsedNanos) {
+		return new DeltaSteppingStatistics(delta, buckets, phases, relaxations.sum(), elapsedNanos,
+				workNanos.sum(), pool.getParallelism());
+	}
+
+	/**
+	 * Relaxes the light or heavy arcs of a list of vertices in parallel chunks.
+	 *
+	 * @return the vertices whose distance was lowered, one list per chunk
+	 */
+	private List<IntList> relax(IntList vertices, boolean light) {
+		List<IntList> updated = new ArrayList<>();
+		if (vertices.size <= CHUNK) {
+			updated.add(relax(vertices, 0, vertices.size, light));
+			return updated;
+		}
+		List<ForkJoinTask<IntList>> tasks = new ArrayList<>();
+		for (int from = 0; from < vertices.size; from += CHUNK) {
+			int start = from;
+			int end = Math.min(from + CHUNK, vertices.size);
+			tasks.add(pool.submit(() -> relax(vertices, start, end, light)));
+		}
+		for (ForkJoinTask<IntList> task : tasks) {
+			updated.add(task.join());
+		}
+		return updated;
+	}
+
+	private IntList relax(IntList vertices, int from, int to, boolean light) {
+		long start = System.nanoTime();
+		IntList updated = new IntList();
+		for (int k = from; k < to; k++) {
+			int v = vertices.items[k];
+			int d = distance(v);
+			for (int i = 0; i < view.degree(v); i++) {
+				int weight = view.weight(v, i);
+				if ((weight <= delta) == light && lower(view.neighbor(v, i), d + weight, v)) {
+					updated.add(view.neighbor(v, i));
+				}
+			}
+		}
+		relaxations.add(updated.size);
+		workNanos.add(System.nanoTime() - start);
+		return updated;
+	}
+
+	/**
+	 * Puts each lowered vertex in the bucket of its new distance, once.
+	 *
+	 * @return the number of vertices queued
+	 */
+	private int enqueue(List<IntList> updated, IntList[] lists, int[] queuedIn) {
+		int queued = 0;
+		for (IntList list : updated) {
+			for (int i = 0; i < list.size; i++) {
+				int v = list.items[i];
+				int b = distance(v) / delta;
+				if (queuedIn[v] != b) {
+					queuedIn[v] = b;
+					lists[b % lists.length].add(v);
+					queued++;
+				}
+			}
+		}
+		return queued;
+	}
+
+	/**
+	 * Lowers the distance of a vertex if the new one is strictly smaller.
+	 */
+	private boolean lower(int v, int distance, int from) {
+		long proposed = pack(distance, from);
+		while (true) {
+			long current = best.get(v);
+			if (current != UNREACHED && (int) (current >>> 32) <= distance) {
+				return false;
+			}
+			if (best.compareAndSet(v, current, proposed)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Picks the predecessor of every vertex in parallel: the smallest-id neighbor
+	 * that is strictly closer and on a shortest path, or, where only roads of
+	 * weight 0 tie, the vertex that first reached it.
+	 */
+	private ShortestPathTree tree(int source) {
+		int capacity = view.vertexCapacity();
+		int[] distance = new int[capacity];
+		int[] previousVertex = new int[capacity];
+		Road[] previousRoad = new Road[capacity];
+		for (int v = 0; v < capacity; v++) {
+			distance[v] = best.get(v) == UNREACHED ? Integer.MAX_VALUE : distance(v);
+		}
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (int from = 0; from < capacity; from += CHUNK * 8) {
+			int start = from;
+			int end = Math.min(from + CHUNK * 8, capacity);
+			tasks.add(pool.submit(() -> {
+				for (int v = start; v < end; v++) {
+					previousVertex[v] = -1;
+					if (v == source || distance[v] == Integer.MAX_VALUE) {
+						continue;
+					}
+					int reachedFrom = (int) best.get(v);
+					for (int i = 0; i < view.degree(v); i++) {
+						int u = view.neighbor(v, i);
+						int weight = view.weight(v, i);
+						if (distance[u] != Integer.MAX_VALUE && distance[u] + weight == distance[v]
+								&& (weight > 0 || u == reachedFrom)
+								&& (previousVertex[v] == -1 || u < previousVertex[v])) {
+							previousVertex[v] = u;
+							previousRoad[v] = view.road(v, i);
+						}
+					}
+				}
+			}));
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+		return new ShortestPathTree(source, distance, previousVertex, previousRoad);
+	}
+
+	private int distance(int v) {
+		return (int) (best.get(v) >>> 32);
+	}
+
+	private static long pack(int distance, int from) {
+		return ((long) distance << 32) | (from & 0xFFFFFFFFL);
+	}
+}
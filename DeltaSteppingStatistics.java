@@ -0,0 +1,92 @@
+/**
+ * Figures from one parallel shortest path tree build, as returned by
+ * {@link Graph#getDeltaSteppingStatistics()}. Work is the time spent relaxing
+ * arcs summed over all workers, so work divided by elapsed time is the
+ * parallelism the search achieved.
+ */
+public class DeltaSteppingStatistics {
+	private final int delta;
+	private final int buckets;
+	private final int phases;
+	private final long relaxations;
+	private final long elapsedNanos;
+	private final long workNanos;
+	private final int workers;
+
+	DeltaSteppingStatistics(int delta, int buckets, int phases, long relaxations, long elapsedNanos, long workNanos,
+			int workers) {
+		this.delta = delta;
+		this.buckets = buckets;
+		this.phases = phases;
+		this.relaxations = relaxations;
+		this.elapsedNanos = elapsedNanos;
+		this.workNanos = workNanos;
+		this.workers = workers;
+	}
+
+	/**
+	 * @return the bucket width the tree was built with
+	 */
+	public int getDelta() {
+		return delta;
+	}
+
+	/**
+	 * @return the number of non-empty buckets processed
+	 */
+	public int getBuckets() {
+		return buckets;
+	}
+
+	/**
+	 * @return the number of rounds of light arc relaxation, each a parallel step
+	 */
+	public int getPhases() {
+		return phases;
+	}
+
+	/**
+	 * @return the number of times a distance was lowered; Dijkstra lowers each
+	 *         distance about once, so the excess is work delta-stepping wasted
+	 */
+	public long getRelaxations() {
+		return relaxations;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public long getWorkNanos() {
+		return workNanos;
+	}
+
+	/**
+	 * @return the parallelism of the pool the tree was built on
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * @return work divided by elapsed time: how many workers were busy on average
+	 */
+	public double getParallelism() {
+		return elapsedNanos == 0 ? 0 : (double) workNanos / elapsedNanos;
+	}
+
+	/**
+	 * @param sequentialNanos time the same tree took with sequential Dijkstra
+	 * @return how many times faster the parallel build was
+	 */
+	public double getSpeedupOver(long sequentialNanos) {
+		return elapsedNanos == 0 ? 0 : (double) sequentialNanos / elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "delta " + delta + ", " + buckets + " buckets, " + phases + " phases, " + relaxations
+				+ " relaxations, " + elapsedNanos / 1000 + " us elapsed, parallelism "
+				+ String.format("%.2f", getParallelism()) + " of " + workers;
+	}
+}
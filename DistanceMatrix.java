@@ -0,0 +1,105 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Many-to-many shortest distances over vertex ids. One Dijkstra search runs per
+ * source, and the sources are spread over the workers of a ForkJoinPool. Each
+ * search stops as soon as every target has been settled, so a matrix between
+ * nearby towns touches only their neighborhood, however large the graph is.
+ * Sets of search arrays are handed from one search to the next, reset through
+ * the list of ids they touched, so a search costs time proportional to the part
+ * of the graph it reaches and at most one set per worker is ever allocated.
+ */
+class DistanceMatrix {
+	private final AdjacencyView view;
+	private final int[] sources;
+	private final int[] targets;
+	private final boolean[] isTarget;
+	private final int targetCount;
+	private final int[][] distances;
+	private final SearchWorkspace.Pool workspaces;
+
+	/**
+	 * Splits a range of source rows in halves until one row is left, so idle
+	 * workers can steal the remaining halves.
+	 */
+	private final class Rows extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+
+		Rows(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				search(from);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Rows(from, middle), new Rows(middle, to));
+			}
+		}
+	}
+
+	/**
+	 * @param view    the adjacency to search
+	 * @param sources ids of the source vertices, -1 for a town not in the graph
+	 * @param targets ids of the target vertices, -1 for a town not in the graph
+	 */
+	DistanceMatrix(AdjacencyView view, int[] sources, int[] targets) {
+		this.view = view;
+		this.sources = sources;
+		this.targets = targets;
+		this.isTarget = new boolean[view.vertexCapacity()];
+		int count = 0;
+		for (int target : targets) {
+			if (target != -1 && !isTarget[target]) {
+				isTarget[target] = true;
+				count++;
+			}
+		}
+		this.targetCount = count;
+		this.distances = new int[sources.length][targets.length];
+		this.workspaces = new SearchWorkspace.Pool(view.vertexCapacity());
+	}
+
+	/**
+	 * Runs the searches on a pool and waits for all of them.
+	 *
+	 * @param pool the pool to run on
+	 * @return distances[i][j] is the length of a shortest path from source i to
+	 *         target j, or -1 if there is none
+	 */
+	int[][] compute(ForkJoinPool pool) {
+		if (sources.length > 0) {
+			pool.invoke(new Rows(0, sources.length));
+		}
+		return distances;
+	}
+
+	private void search(int row) {
+		int[] result = distances[row];
+		int source = sources[row];
+		if (source == -1) {
+			Arrays.fill(result, -1);
+			return;
+		}
+		SearchWorkspace workspace = workspaces.take();
+		int[] distance = workspace.distance;
+		if (targetCount > 0) {
+			int[] remaining = { targetCount };
+			workspace.start(source);
+			workspace.dijkstra(view, visiting -> isTarget[visiting] && --remaining[0] == 0);
+		}
+
+		for (int j = 0; j < targets.length; j++) {
+			int target = targets[j];
+			result[j] = target == -1 || distance[target] == Integer.MAX_VALUE ? -1 : distance[target];
+		}
+		workspaces.give(workspace);
+	}
+}
@@ -1,27 +1,59 @@
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * Safe for use by many threads at once. Every modification publishes a new
+ * immutable {@link GraphSnapshot} that shares all unchanged adjacency with the
+ * one before it. Queries read the latest published snapshot and never wait;
+ * modifications are serialized by a lock. Use {@link #snapshot()} when several
+ * queries must see the same version of the graph.
  * 
  * @author Hendrick
  *
  */
 public class Graph implements GraphInterface<Town, Road> {
-	private Map<Town, List<Road>> adjacencyList;
-	private Map<Town, Town> previousVertex;
-	private Set<Town> towns;
+	private static final int SWEEP_MIN = 64;
+
+	private Map<Town, VertexEntry> vertexIds;
+	private Map<Long, Road> edgeIndex;
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private volatile GraphSnapshot current;
+	// Odd while a writer is changing the edge index and publishing.
+	private volatile long indexSequence;
+	private final ArrayDeque<WeakReference<GraphSnapshot>> published = new ArrayDeque<>();
+	private final Set<Town> retired = new HashSet<>();
+	private int sweepAt = SWEEP_MIN;
+	private final ShortestPathTreeCache lastTree = new ShortestPathTreeCache(1);
+	private final ThreadLocal<SearchWorkspace> workspaces = new ThreadLocal<>();
+	private final ThreadLocal<SearchWorkspace> backwardWorkspaces = new ThreadLocal<>();
+	private volatile CsrGraph frozenView;
+	private volatile ContractionHierarchy hierarchy;
+	private volatile AllPairsShortestPaths allPairs;
+	private volatile ShortestPathTreeCache treeCache;
+	private volatile SearchStrategy searchStrategy;
+	private volatile int treeDelta;
+	private volatile DeltaSteppingStatistics deltaSteppingStatistics;
+	private volatile RoutingMetrics metrics;
 
 	public Graph() {
-		towns = new HashSet<Town>();
-		adjacencyList = new HashMap<Town, List<Road>>();
-		previousVertex = new HashMap<>();
+		vertexIds = new ConcurrentHashMap<>();
+		edgeIndex = new ConcurrentHashMap<>();
+		current = new GraphSnapshot(this);
+		searchStrategy = SearchStrategy.DIJKSTRA;
 	}
 
 	/**
@@ -32,20 +64,31 @@ public class Graph implements GraphInterface<Town, Road> {
 	 * combination with the restriction on constructors, this ensures that graphs
 	 * never contain duplicate vertices.
 	 * 
+	 * The vertex is given a dense int id that stays the same until it is removed.
+	 *
 	 * @paradm v vertex to be adde to this graph.
 	 * @return true if this graph did not already contain the specified vertex.
 	 * @throws NullPointerException if the specified vertex is null.
 	 */
 	@Override
 	public boolean addVertex(Town v) {
-		if (containsVertex(v) == true) {
-			return false;
-		} else if (v == null) {
-			throw new NullPointerException();
-		} else {
-			this.adjacencyList.put(v, new LinkedList<>());
-			towns.add(v);
-			return true;
+		writeLock.lock();
+		try {
+			if (containsVertex(v) == true) {
+				return false;
+			} else if (v == null) {
+				throw new NullPointerException();
+			} else {
+				GraphSnapshot.Editor edit = current.edit();
+				int id = edit.addVertex(v);
+				vertexIds.put(v, new VertexEntry(id, current.version() + 1, Long.MAX_VALUE, vertexIds.get(v)));
+				beginPublish();
+				publish(edit);
+				mutated(1);
+				return true;
+			}
+		} finally {
+			writeLock.unlock();
 		}
 	}
 
@@ -66,21 +109,36 @@ public class Graph implements GraphInterface<Town, Road> {
 	 */
 	@Override
 	public Road addEdge(Town sourceVertex, Town destinationVertex, int weight, String description) {
-		if (sourceVertex == null || destinationVertex == null) {
-			throw new NullPointerException("Source or destination vertex cannot be null.");
-		}
-		if (!containsVertex(sourceVertex) || !containsVertex(destinationVertex)) {
-			throw new IllegalArgumentException("Source or destination vertex not found in graph.");
-		}
+		writeLock.lock();
+		try {
+			if (sourceVertex == null || destinationVertex == null) {
+				throw new NullPointerException("Source or destination vertex cannot be null.");
+			}
+			if (!containsVertex(sourceVertex) || !containsVertex(destinationVertex)) {
+				throw new IllegalArgumentException("Source or destination vertex not found in graph.");
+			}
 
-		Road existingEdge = getEdge(sourceVertex, destinationVertex);
-		if (existingEdge != null) {
-			return null;
+			GraphSnapshot snapshot = current;
+			int source = snapshot.id(sourceVertex);
+			int destination = snapshot.id(destinationVertex);
+			long key = edgeKey(source, destination);
+			if (edgeIndex.containsKey(key)) {
+				return null;
+			}
+			Road road = new Road(snapshot.town(source), snapshot.town(destination), weight, description);
+			GraphSnapshot.Editor edit = snapshot.edit();
+			edit.addArc(source, destination, weight, road);
+			if (source != destination) {
+				edit.addArc(destination, source, weight, road);
+			}
+			beginPublish();
+			edgeIndex.put(key, road);
+			publish(edit);
+			mutated(1);
+			return road;
+		} finally {
+			writeLock.unlock();
 		}
-		Road road = new Road(sourceVertex, destinationVertex, weight, description);
-		this.adjacencyList.get(sourceVertex).add(road);
-		this.adjacencyList.get(destinationVertex).add(road);
-		return road;
 	}
 
 	/**
@@ -94,6 +152,10 @@ public class Graph implements GraphInterface<Town, Road> {
 	 * @param sourceVertex      source vertex of the edge.
 	 * @param destinationVertex target vertex of the edge.
 	 *
+	 * The edge is looked up in an index by the ids of its vertices. If a writer
+	 * changed the index during the lookup, the answer is taken from the snapshot
+	 * instead, so it always agrees with one published version.
+	 *
 	 * @return an edge connecting source vertex to target vertex.
 	 */
 	@Override
@@ -101,21 +163,18 @@ public class Graph implements GraphInterface<Town, Road> {
 		if (sourceVertex == null || destinationVertex == null)
 			return null;
 
-		else if (!containsVertex(sourceVertex) || !containsVertex(destinationVertex))
+		long sequence = indexSequence;
+		GraphSnapshot snapshot = current;
+		int source = snapshot.id(sourceVertex);
+		int destination = snapshot.id(destinationVertex);
+		if (source == -1 || destination == -1)
 			return null;
 
-		for (Road r : adjacencyList.get(sourceVertex)) {
-			if (r.contains(destinationVertex))
-				return r;
+		Road road = edgeIndex.get(edgeKey(source, destination));
+		if (sequence % 2 == 0 && indexSequence == sequence) {
+			return road;
 		}
-
-		for (Road r : adjacencyList.get(destinationVertex)) {
-			if (r.contains(sourceVertex))
-				return r;
-		}
-
-		return null;
-
+		return snapshot.getEdge(sourceVertex, destinationVertex);
 	}
 
 	/**
@@ -130,10 +189,9 @@ public class Graph implements GraphInterface<Town, Road> {
 	public boolean containsVertex(Town v) {
 		if (v == null)
 			return false;
-		if (adjacencyList.containsKey(v))
+		if (current.containsVertex(v))
 			return true;
 		return false;
-
 	}
 
 	/**
@@ -151,20 +209,7 @@ public class Graph implements GraphInterface<Town, Road> {
 		if (sourceVertex == null || destinationVertex == null)
 			return false;
 
-		if (!containsVertex(sourceVertex) || !containsVertex(destinationVertex))
-			return false;
-
-		for (Road r : adjacencyList.get(sourceVertex)) {
-			if (r.contains(destinationVertex))
-				return true;
-		}
-
-		for (Road r : adjacencyList.get(destinationVertex)) {
-			if (r.contains(sourceVertex))
-				return true;
-		}
-
-		return false;
+		return getEdge(sourceVertex, destinationVertex) != null;
 	}
 
 	/**
@@ -177,13 +222,13 @@ public class Graph implements GraphInterface<Town, Road> {
 	 */
 	@Override
 	public Set<Road> edgeSet() {
-		Set<Road> set = new HashSet<>();
-		for (Map.Entry<Town, List<Road>> entry : adjacencyList.entrySet()) {
-			for (Road r : entry.getValue()) {
-				set.add(r);
-			}
+		long sequence = indexSequence;
+		GraphSnapshot snapshot = current;
+		Set<Road> edges = new HashSet<>(edgeIndex.values());
+		if (sequence % 2 == 0 && indexSequence == sequence) {
+			return edges;
 		}
-		return set;
+		return snapshot.edgeSet();
 	}
 
 	/**
@@ -196,15 +241,11 @@ public class Graph implements GraphInterface<Town, Road> {
 	 */
 	@Override
 	public Set<Town> vertexSet() {
-		return adjacencyList.keySet();
+		return current.vertexSet();
 	}
 
 	public Set<Road> edgesOf(Town vertex) {
-		Set<Road> set = new HashSet<>();
-		for (Road r : adjacencyList.get(vertex)) {
-			set.add(r);
-		}
-		return set;
+		return current.edgesOf(vertex);
 	}
 
 	/**
@@ -223,24 +264,366 @@ public class Graph implements GraphInterface<Town, Road> {
 	 */
 	@Override
 	public Road removeEdge(Town sourceVertex, Town destinationVertex, int weight, String description) {
-		Road roadToRemove = getEdge(sourceVertex, destinationVertex);
-		if (roadToRemove != null && roadToRemove.getWeight() == weight && roadToRemove.getName().equals(description)) {
-			adjacencyList.get(sourceVertex).remove(roadToRemove);
-			adjacencyList.get(destinationVertex).remove(roadToRemove);
-			return roadToRemove;
+		writeLock.lock();
+		try {
+			Road roadToRemove = getEdge(sourceVertex, destinationVertex);
+			if (roadToRemove != null && roadToRemove.getWeight() == weight && roadToRemove.getName().equals(description)) {
+				GraphSnapshot snapshot = current;
+				int source = snapshot.id(sourceVertex);
+				int destination = snapshot.id(destinationVertex);
+				GraphSnapshot.Editor edit = snapshot.edit();
+				edit.removeArc(source, roadToRemove);
+				if (source != destination) {
+					edit.removeArc(destination, roadToRemove);
+				}
+				beginPublish();
+				edgeIndex.remove(edgeKey(source, destination));
+				publish(edit);
+				mutated(1);
+				return roadToRemove;
+			}
+			return null;
+		} finally {
+			writeLock.unlock();
 		}
-		return null;
 	}
 
+	/**
+	 * Removes the specified vertex from this graph including all its touching edges
+	 * if present. Its id is released and may be given to a vertex added later.
+	 *
+	 * @param v vertex to be removed from this graph, if present.
+	 * @return true if the graph contained the specified vertex; false otherwise.
+	 */
 	@Override
 	public boolean removeVertex(Town v) {
-		if (v == null)
-			return false;
-		if (!adjacencyList.containsKey(v))
-			return false;
-		adjacencyList.remove(v);
-		adjacencyList.keySet().remove(v);
-		return true;
+		writeLock.lock();
+		try {
+			if (v == null)
+				return false;
+			GraphSnapshot snapshot = current;
+			int id = snapshot.id(v);
+			if (id == -1)
+				return false;
+			GraphSnapshot.Editor edit = snapshot.edit();
+			for (int i = 0; i < snapshot.degree(id); i++) {
+				int neighbor = snapshot.neighbor(id, i);
+				if (neighbor != id) {
+					edit.removeArc(neighbor, snapshot.road(id, i));
+				}
+			}
+			edit.removeVertex(id);
+			VertexEntry entry = vertexIds.get(v);
+			vertexIds.put(v, new VertexEntry(id, entry.added, snapshot.version() + 1, entry.previous));
+			retired.add(v);
+			beginPublish();
+			for (int i = 0; i < snapshot.degree(id); i++) {
+				edgeIndex.remove(edgeKey(id, snapshot.neighbor(id, i)));
+			}
+			publish(edit);
+			mutated(1);
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Moves a vertex of this graph. The vertex is replaced by an equal town at
+	 * the new location in a new version, so snapshots taken before keep the old
+	 * location and every search sees the locations of one version only. Roads
+	 * keep the town objects they were created with; use the towns of the graph
+	 * for current locations.
+	 * 
+	 * @param v         vertex of this graph
+	 * @param latitude  latitude in degrees
+	 * @param longitude longitude in degrees
+	 * @return the town as it now is in the graph
+	 * @throws IllegalArgumentException if the vertex is not in the graph
+	 */
+	public Town setCoordinates(Town v, double latitude, double longitude) {
+		writeLock.lock();
+		try {
+			GraphSnapshot snapshot = current;
+			int id = snapshot.id(v);
+			if (id == -1) {
+				throw new IllegalArgumentException("Vertex not found in graph.");
+			}
+			Town moved = new Town(snapshot.town(id).getName(), latitude, longitude);
+			GraphSnapshot.Editor edit = snapshot.edit();
+			edit.setTown(id, moved);
+			beginPublish();
+			publish(edit);
+			mutated(1);
+			return moved;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Adds many vertices and edges as one new version. The result is the same as
+	 * adding the vertices and then the edges one at a time in order: a vertex
+	 * already in the graph keeps its id, an edge joining two vertices that are
+	 * already joined is skipped, and each vertex gets its arcs in edge order. The
+	 * arcs are grouped by vertex first so every vertex's arrays are copied once,
+	 * instead of once per edge. A vertex already in the graph that is given with
+	 * a different location replaces the graph's town, as
+	 * {@link #setCoordinates(Town, double, double)} does. Nothing is published
+	 * if nothing changes.
+	 *
+	 * @param vertices     the vertices the edges join, no two of them equal; those
+	 *                     not yet in the graph are added, and the others moved to
+	 *                     their location if they have one
+	 * @param sources      source of each edge, as a position in vertices
+	 * @param destinations destination of each edge, as a position in vertices
+	 * @param weights      weight of each edge
+	 * @param names        description of each edge
+	 * @param count        number of edges in the arrays
+	 * @return the number of edges added
+	 */
+	int addAll(List<Town> vertices, int[] sources, int[] destinations, int[] weights, String[] names, int count) {
+		writeLock.lock();
+		try {
+			GraphSnapshot snapshot = current;
+			GraphSnapshot.Editor edit = snapshot.edit();
+			long version = snapshot.version() + 1;
+			int[] ids = new int[vertices.size()];
+			int changes = 0;
+			for (int i = 0; i < ids.length; i++) {
+				Town v = vertices.get(i);
+				ids[i] = snapshot.id(v);
+				if (ids[i] == -1) {
+					ids[i] = edit.addVertex(v);
+					changes++;
+					vertexIds.put(v, new VertexEntry(ids[i], version, Long.MAX_VALUE, vertexIds.get(v)));
+				} else if (moved(snapshot.town(ids[i]), v)) {
+					edit.setTown(ids[i], v);
+					changes++;
+				}
+			}
+
+			int[] from = new int[count];
+			int[] to = new int[count];
+			Road[] roads = new Road[count];
+			Map<Long, Road> newEdges = new HashMap<>(count + count / 3 + 1);
+			// Arcs are counted by position in vertices rather than by id, so the
+			// work depends on the size of the batch and not on that of the graph.
+			int[] degree = new int[ids.length + 1];
+			int edges = 0;
+			for (int i = 0; i < count; i++) {
+				int s = ids[sources[i]];
+				int d = ids[destinations[i]];
+				long key = edgeKey(s, d);
+				if (edgeIndex.containsKey(key) || newEdges.containsKey(key)) {
+					continue;
+				}
+				Road road = new Road(edit.town(s), edit.town(d), weights[i], names[i]);
+				newEdges.put(key, road);
+				from[edges] = sources[i];
+				to[edges] = destinations[i];
+				roads[edges] = road;
+				edges++;
+				degree[sources[i] + 1]++;
+				if (s != d) {
+					degree[destinations[i] + 1]++;
+				}
+			}
+
+			// Counting sort of the arcs by the vertex they leave, keeping edge order.
+			int[] start = new int[degree.length];
+			for (int v = 1; v < degree.length; v++) {
+				degree[v] += degree[v - 1];
+				start[v] = degree[v];
+			}
+			int arcs = degree[degree.length - 1];
+			int[] arcNeighbor = new int[arcs];
+			int[] arcWeight = new int[arcs];
+			Road[] arcRoad = new Road[arcs];
+			for (int i = 0; i < edges; i++) {
+				int slot = degree[from[i]]++;
+				arcNeighbor[slot] = ids[to[i]];
+				arcWeight[slot] = roads[i].getWeight();
+				arcRoad[slot] = roads[i];
+				if (from[i] != to[i]) {
+					slot = degree[to[i]]++;
+					arcNeighbor[slot] = ids[from[i]];
+					arcWeight[slot] = roads[i].getWeight();
+					arcRoad[slot] = roads[i];
+				}
+			}
+			for (int p = 0; p < ids.length; p++) {
+				if (degree[p] > start[p]) {
+					edit.addArcs(ids[p], arcNeighbor, arcWeight, arcRoad, start[p], degree[p] - start[p]);
+				}
+			}
+
+			if (changes + edges > 0) {
+				beginPublish();
+				edgeIndex.putAll(newEdges);
+				publish(edit);
+				mutated(changes + edges);
+			}
+			return edges;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * @return true if a town given for a vertex has a location the vertex does
+	 *         not have yet
+	 */
+	private static boolean moved(Town current, Town given) {
+		return given != current && given.hasCoordinates() && (!current.hasCoordinates()
+				|| current.getLatitude() != given.getLatitude() || current.getLongitude() != given.getLongitude());
+	}
+
+	/**
+	 * Marks the start of a change to the edge index. Writers call it with the
+	 * write lock held, change the index and then call
+	 * {@link #publish(GraphSnapshot.Editor)}, so the index and the published
+	 * version always change together, in that order, and a reader that sees the
+	 * sequence number change knows its lookup may have mixed the two.
+	 */
+	private void beginPublish() {
+		indexSequence++;
+	}
+
+	/**
+	 * Makes the version built by an editor current and ends the change started
+	 * by {@link #beginPublish()}. Published versions are remembered weakly; once
+	 * enough have been published since the last sweep, the version entries of
+	 * removed vertices that no live snapshot can reach any more are dropped.
+	 */
+	private void publish(GraphSnapshot.Editor edit) {
+		current = edit.publish();
+		published.addLast(new WeakReference<>(current));
+		if (published.size() >= sweepAt) {
+			sweep();
+		}
+		indexSequence++;
+	}
+
+	/**
+	 * Forgets the published versions that have been collected, and trims the
+	 * version chains of removed vertices to the entries a live version can still
+	 * reach. A snapshot that is still referenced keeps its entries, however old.
+	 */
+	private void sweep() {
+		published.removeIf(reference -> reference.get() == null);
+		long[] live = new long[published.size()];
+		int count = 0;
+		for (WeakReference<GraphSnapshot> reference : published) {
+			GraphSnapshot snapshot = reference.get();
+			if (snapshot != null) {
+				live[count++] = snapshot.version();
+			}
+		}
+		for (Iterator<Town> it = retired.iterator(); it.hasNext();) {
+			Town v = it.next();
+			VertexEntry chain = trim(vertexIds.get(v), live, count);
+			if (chain == null) {
+				vertexIds.remove(v);
+			} else {
+				vertexIds.put(v, chain);
+			}
+			if (chain == null || chain.previous == null && chain.removed == Long.MAX_VALUE) {
+				it.remove();
+			}
+		}
+		sweepAt = Math.max(SWEEP_MIN, 2 * published.size());
+	}
+
+	/**
+	 * @param entry the newest entry of a version chain, or null
+	 * @param live  the versions still referenced, in increasing order
+	 * @param count the number of versions in live
+	 * @return the chain without the entries of removed vertices that none of the
+	 *         live versions falls in, or null if no entry is left
+	 */
+	private static VertexEntry trim(VertexEntry entry, long[] live, int count) {
+		List<VertexEntry> kept = new ArrayList<>();
+		boolean trimmed = false;
+		for (VertexEntry e = entry; e != null; e = e.previous) {
+			if (e.removed != Long.MAX_VALUE) {
+				int i = Arrays.binarySearch(live, 0, count, e.added);
+				if (i < 0) {
+					i = -i - 1;
+				}
+				if (i == count || live[i] >= e.removed) {
+					trimmed = true;
+					continue;
+				}
+			}
+			kept.add(e);
+		}
+		if (!trimmed) {
+			return entry;
+		}
+		VertexEntry chain = null;
+		for (int k = kept.size() - 1; k >= 0; k--) {
+			VertexEntry e = kept.get(k);
+			chain = new VertexEntry(e.id, e.added, e.removed, chain);
+		}
+		return chain;
+	}
+
+	/**
+	 * Writes the graph to a compact binary image that {@link #load(File)} reads
+	 * back without parsing. The image holds the latest version at the time of
+	 * the call; writers are not held up while it is written.
+	 * 
+	 * @param file the file to write, replaced if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(File file) throws IOException {
+		GraphImage.write(current, file.toPath());
+	}
+
+	/**
+	 * Adds the towns and roads of an image written by {@link #save(File)} as one
+	 * modification. Loaded into an empty graph, the image gives back the graph
+	 * that was saved. A town already in the graph is moved to the location the
+	 * image gives it, as when the same town is read from a road file, and keeps
+	 * its own coordinates when the image has none. Roads between towns that are
+	 * already joined are skipped.
+	 * 
+	 * @param file the image to read
+	 * @throws IOException if the file cannot be read or is not a graph image
+	 */
+	public void load(File file) throws IOException {
+		long start = System.nanoTime();
+		GraphImage image = GraphImage.read(file.toPath());
+		int edges = addAll(Arrays.asList(image.towns), image.sources, image.destinations, image.weights,
+				image.names, image.sources.length);
+		RoutingMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.loaded(edges, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Builds an immutable compressed-sparse-row view of the graph. While no vertex
+	 * or edge is added or removed afterwards, dijkstraShortestPath and
+	 * shortestPath run against the view's contiguous arrays instead of the paged
+	 * snapshot. Any modification makes the view stale and queries fall back to the
+	 * snapshot until freeze is called again.
+	 */
+	public void freeze() {
+		GraphSnapshot snapshot = current;
+		if (view(snapshot) == snapshot) {
+			frozenView = new CsrGraph(snapshot, snapshot.version());
+		}
+	}
+
+	/**
+	 * @return true if a frozen view exists and the graph has not been modified
+	 *         since it was built
+	 */
+	public boolean isFrozen() {
+		CsrGraph view = frozenView;
+		return view != null && view.version() == current.version();
 	}
 
 	/**
@@ -248,44 +631,123 @@ public class Graph implements GraphInterface<Town, Road> {
 	 * ability to retrieve the path, shortest distance from the sourceVertex to all
 	 * the other vertices in the graph, etc.
 	 * 
+	 * The complete tree from the source is kept until the graph changes or a tree
+	 * is built from another source. Meanwhile shortestPath from the same source
+	 * under {@link SearchStrategy#DIJKSTRA} walks the tree back from its
+	 * destination instead of searching again.
+	 * 
 	 * @param sourceVertex the vertex to find shortest path from
 	 * 
 	 */
 	@Override
 	public void dijkstraShortestPath(Town sourceVertex) {
-		if (!containsVertex(sourceVertex)) {
+		GraphSnapshot snapshot = current;
+		int source = snapshot.id(sourceVertex);
+		if (source == -1) {
 			throw new IllegalArgumentException("Source vertex not found in graph.");
 		}
-		Map<Town, Integer> shortestDistanceMap = new HashMap<>();
-		for (Town vertex : adjacencyList.keySet()) {
-			shortestDistanceMap.put(vertex, Integer.MAX_VALUE);
-		}
-		shortestDistanceMap.put(sourceVertex, 0);
-		PriorityQueue<Town> pq = new PriorityQueue<>((a, b) -> shortestDistanceMap.get(a) - shortestDistanceMap.get(b));
-		pq.add(sourceVertex);
-		previousVertex.clear();
-		Set<Town> visitedVertices = new HashSet<>();
+		lastTree.put(completeTree(view(snapshot), source, snapshot.version(), metrics), snapshot.version());
+	}
 
-		while (!pq.isEmpty()) {
-			Town visitingVertex = pq.poll();
-			if (visitedVertices.contains(visitingVertex)) {
-				continue;
+	/**
+	 * Returns the complete shortest path tree from a source, from the tree cache
+	 * when it holds one for the current version of the graph.
+	 */
+	private ShortestPathTree completeTree(AdjacencyView view, int source, long version, RoutingMetrics metrics) {
+		ShortestPathTreeCache cache = treeCache;
+		ShortestPathTree tree = cache == null ? null : cache.get(source, version);
+		if (cache != null && metrics != null) {
+			metrics.treeCache(tree != null);
+		}
+		if (tree == null) {
+			tree = treeDelta > 0 ? deltaSteppingShortestPath(view, source, metrics)
+					: dijkstraShortestPath(view, source, metrics);
+			if (cache != null) {
+				cache.put(tree, version);
 			}
-			for (Road r : edgesOf(visitingVertex)) {
-				Town neighbor = (r.getSource().equals(visitingVertex)) ? r.getDestination() : r.getSource();
-				if (neighbor.equals(visitingVertex))
-					continue;
-				int newDistance = shortestDistanceMap.get(visitingVertex) + r.getWeight();
-				if (newDistance < shortestDistanceMap.get(neighbor)) {
-					shortestDistanceMap.put(neighbor, newDistance);
-					previousVertex.put(neighbor, visitingVertex);
-					pq.add(neighbor);
-				}
+		}
+		return tree;
+	}
+
+	/**
+	 * Dijkstra's algorithm over vertex ids, queuing ids in an indexed heap keyed
+	 * by tentative distance and lowering keys in place. Every reachable vertex is
+	 * settled, and the tree is copied out of the thread's workspace.
+	 *
+	 * @param view    the adjacency to search
+	 * @param source  id of the source vertex
+	 * @param metrics where to record the work done, or null
+	 * @return the distances and predecessors found
+	 */
+	private ShortestPathTree dijkstraShortestPath(AdjacencyView view, int source, RoutingMetrics metrics) {
+		SearchWorkspace workspace = workspace(view);
+		try {
+			workspace.start(source);
+			workspace.dijkstra(view, null);
+			if (metrics != null) {
+				metrics.searched(workspace.queue);
 			}
-			visitedVertices.add(visitingVertex);
+			return workspace.tree(source, view.vertexCapacity());
+		} finally {
+			workspace.reset();
+		}
+	}
+
+	/**
+	 * Dijkstra's algorithm from a source to one target in the given workspace.
+	 * The search stops as soon as the target is settled, since its path can no
+	 * longer change, and it touches nothing else, so a short trip costs only the
+	 * towns it settles however large the graph is. The path is left in the
+	 * predecessor arrays of the workspace.
+	 */
+	private static void dijkstraShortestPath(AdjacencyView view, int source, int target, SearchWorkspace workspace,
+			RoutingMetrics metrics) {
+		workspace.start(source);
+		workspace.dijkstra(view, id -> id == target);
+		if (metrics != null) {
+			metrics.searched(workspace.queue);
 		}
 	}
 
+	/**
+	 * @return the search workspace of the calling thread, replaced by a larger
+	 *         one if the view has outgrown it
+	 */
+	private SearchWorkspace workspace(AdjacencyView view) {
+		return workspace(workspaces, view);
+	}
+
+	/**
+	 * @param workspaces the workspaces of one kind, one per thread
+	 * @return the workspace of the calling thread
+	 */
+	private static SearchWorkspace workspace(ThreadLocal<SearchWorkspace> workspaces, AdjacencyView view) {
+		SearchWorkspace workspace = workspaces.get();
+		int capacity = view.vertexCapacity();
+		if (workspace == null || workspace.capacity() < capacity) {
+			// Leave room so a growing graph does not reallocate on every query.
+			workspace = new SearchWorkspace(capacity + (capacity >> 3) + 16);
+			workspaces.set(workspace);
+		}
+		return workspace;
+	}
+
+	/**
+	 * Builds a complete tree with parallel delta-stepping on the common pool and
+	 * records how the build went.
+	 */
+	private ShortestPathTree deltaSteppingShortestPath(AdjacencyView view, int source, RoutingMetrics metrics) {
+		long start = System.nanoTime();
+		DeltaStepping search = new DeltaStepping(view, treeDelta, ForkJoinPool.commonPool());
+		ShortestPathTree tree = search.search(source);
+		DeltaSteppingStatistics statistics = search.statistics(System.nanoTime() - start);
+		deltaSteppingStatistics = statistics;
+		if (metrics != null) {
+			metrics.relaxed(statistics.getRelaxations());
+		}
+		return tree;
+	}
+
 	/**
 	 * Find the shortest path from the sourceVertex to the destinationVertex call
 	 * the dijkstraShortestPath with the sourceVertex
@@ -303,33 +765,454 @@ public class Graph implements GraphInterface<Town, Road> {
 	 */
 	@Override
 	public ArrayList<String> shortestPath(Town sourceVertex, Town destinationVertex) {
-		if (!adjacencyList.containsKey(sourceVertex) || !adjacencyList.containsKey(destinationVertex)) {
-			return new ArrayList<>();
+		return shortestPath(current, sourceVertex, destinationVertex);
+	}
+
+	/**
+	 * Finds a shortest path within one version of the graph and formats it. See
+	 * {@link #route(GraphSnapshot, Town, Town)}.
+	 */
+	ArrayList<String> shortestPath(GraphSnapshot snapshot, Town sourceVertex, Town destinationVertex) {
+		Route route = route(snapshot, sourceVertex, destinationVertex);
+		return route == null ? new ArrayList<>() : route.getDirections();
+	}
+
+	/**
+	 * Finds a shortest path with the current search strategy, as shortestPath
+	 * does, but returns its towns and roads instead of formatted strings, so a
+	 * caller that needs only the distance or the roads does not pay for
+	 * formatting every hop.
+	 * 
+	 * @param sourceVertex      starting vertex
+	 * @param destinationVertex ending vertex
+	 * @return the route, with no roads if the two vertices are the same, or null
+	 *         if either vertex is not in the graph or there is no path
+	 */
+	public Route route(Town sourceVertex, Town destinationVertex) {
+		return route(current, sourceVertex, destinationVertex);
+	}
+
+	/**
+	 * Finds a shortest path within one version of the graph. The frozen view,
+	 * contraction hierarchy and cached trees are used only if they were built from
+	 * that same version. With metrics on, the query is timed.
+	 */
+	Route route(GraphSnapshot snapshot, Town sourceVertex, Town destinationVertex) {
+		RoutingMetrics metrics = this.metrics;
+		if (metrics == null) {
+			return findRoute(snapshot, sourceVertex, destinationVertex, null);
 		}
+		long start = System.nanoTime();
+		Route route = findRoute(snapshot, sourceVertex, destinationVertex, metrics);
+		metrics.query(System.nanoTime() - start);
+		return route;
+	}
 
-		dijkstraShortestPath(sourceVertex);
-		ArrayList<String> path = new ArrayList<>();
-		Town currentVertex = destinationVertex;
+	private Route findRoute(GraphSnapshot snapshot, Town sourceVertex, Town destinationVertex,
+			RoutingMetrics metrics) {
+		int source = snapshot.id(sourceVertex);
+		int target = snapshot.id(destinationVertex);
+		if (source == -1 || target == -1) {
+			return null;
+		}
 
-		while (currentVertex != null && previousVertex.containsKey(currentVertex)) {
-			Town previous = previousVertex.get(currentVertex);
-			if (previous == null) {
-				break;
+		AdjacencyView view = view(snapshot);
+		if (target == source) {
+			return new Route(new Town[] { view.town(source) }, new Road[0]);
+		}
+		ArrayList<Town> hops = new ArrayList<>();
+		ArrayList<Road> roads = new ArrayList<>();
+		AllPairsShortestPaths allPairs = this.allPairs;
+		if (allPairs != null && allPairs.version() == snapshot.version() && allPairs.shortestPath(source, target,
+				hops, roads) != AllPairsShortestPaths.NO_CONSISTENT_PATH) {
+			if (metrics != null) {
+				metrics.allPairs();
+			}
+			return route(hops, roads);
+		}
+		SearchStrategy strategy = searchStrategy;
+		ContractionHierarchy hierarchy = this.hierarchy;
+		if (strategy == SearchStrategy.CONTRACTION_HIERARCHIES && hierarchy != null
+				&& hierarchy.version() == snapshot.version()) {
+			hierarchy.shortestPath(source, target, hops, roads, metrics);
+			return route(hops, roads);
+		}
+		double scale = strategy == SearchStrategy.A_STAR ? snapshot.heuristicScale() : 0;
+		if (scale > 0) {
+			SearchWorkspace workspace = workspace(view);
+			try {
+				AStarSearch.search(view, source, target, scale, workspace, metrics);
+				return route(view, source, target, workspace.previousVertex, workspace.previousRoad);
+			} finally {
+				workspace.reset();
+			}
+		} else if (strategy == SearchStrategy.BIDIRECTIONAL) {
+			SearchWorkspace forward = workspace(view);
+			SearchWorkspace backward = workspace(backwardWorkspaces, view);
+			try {
+				BidirectionalDijkstra.search(view, source, target, forward, backward, metrics);
+				return route(view, source, target, forward.previousVertex, forward.previousRoad);
+			} finally {
+				forward.reset();
+				backward.reset();
 			}
-			Road road = getEdge(previous, currentVertex);
-			if (road == null) {
-				break;
+		}
+		ShortestPathTree tree = lastTree.get(source, snapshot.version());
+		if (tree == null && treeCache != null) {
+			tree = completeTree(view, source, snapshot.version(), metrics);
+		}
+		if (tree != null) {
+			return route(view, source, target, tree.previousVertices(), tree.previousRoads());
+		}
+		SearchWorkspace workspace = workspace(view);
+		try {
+			dijkstraShortestPath(view, source, target, workspace, metrics);
+			return route(view, source, target, workspace.previousVertex, workspace.previousRoad);
+		} finally {
+			workspace.reset();
+		}
+	}
+
+	/**
+	 * Reads a path off predecessor arrays.
+	 *
+	 * @return the route from source to target, or null if the target has no
+	 *         predecessor
+	 */
+	private static Route route(AdjacencyView view, int source, int target, int[] previousVertex,
+			Road[] previousRoad) {
+		if (previousVertex[target] == -1) {
+			return null;
+		}
+
+		// Count the hops first so the route can be filled from its end without
+		// reversing it afterwards.
+		int length = 0;
+		for (int v = target; v != source; v = previousVertex[v]) {
+			length++;
+		}
+		Town[] towns = new Town[length + 1];
+		Road[] path = new Road[length];
+		int v = target;
+		for (int i = length; i > 0; i--) {
+			towns[i] = view.town(v);
+			path[i - 1] = previousRoad[v];
+			v = previousVertex[v];
+		}
+		towns[0] = view.town(source);
+		return new Route(towns, path);
+	}
+
+	/**
+	 * @return a route given as its towns and the roads between them, or null if
+	 *         the search found no path and left them empty
+	 */
+	private static Route route(List<Town> hops, List<Road> roads) {
+		if (hops.isEmpty()) {
+			return null;
+		}
+		return new Route(hops.toArray(new Town[0]), roads.toArray(new Road[0]));
+	}
+
+	/**
+	 * Computes the length of a shortest path from each source to each target on
+	 * the common ForkJoinPool. See {@link #distanceMatrix(List, List, ForkJoinPool)}.
+	 *
+	 * @param sources the towns the rows start from
+	 * @param targets the towns the columns end at
+	 * @return the distance from sources.get(i) to targets.get(j) at [i][j], -1 if
+	 *         there is no path
+	 */
+	public int[][] distanceMatrix(List<Town> sources, List<Town> targets) {
+		return distanceMatrix(sources, targets, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Computes the length of a shortest path from each source to each target. One
+	 * Dijkstra search runs per source, in parallel on the given pool, and each
+	 * stops once all targets are settled, so this is far cheaper than one
+	 * shortestPath call per pair. All searches run against the same version of the
+	 * graph. A town that is not in the graph gets -1 throughout its row or column.
+	 *
+	 * @param sources the towns the rows start from
+	 * @param targets the towns the columns end at
+	 * @param pool    the pool to run the searches on
+	 * @return the distance from sources.get(i) to targets.get(j) at [i][j], -1 if
+	 *         there is no path
+	 */
+	public int[][] distanceMatrix(List<Town> sources, List<Town> targets, ForkJoinPool pool) {
+		GraphSnapshot snapshot = current;
+		int[] sourceIds = ids(snapshot, sources);
+		int[] targetIds = ids(snapshot, targets);
+		AllPairsShortestPaths allPairs = this.allPairs;
+		if (allPairs == null || allPairs.version() != snapshot.version()) {
+			return new DistanceMatrix(view(snapshot), sourceIds, targetIds).compute(pool);
+		}
+		int[][] distances = new int[sourceIds.length][targetIds.length];
+		for (int i = 0; i < sourceIds.length; i++) {
+			for (int j = 0; j < targetIds.length; j++) {
+				distances[i][j] = sourceIds[i] == -1 || targetIds[j] == -1 ? -1
+						: allPairs.distance(sourceIds[i], targetIds[j]);
 			}
-			path.add(0, previous.getName() + " via " + road.getName() + " to " + currentVertex.getName() + " "
-					+ road.getWeight() + " mi");
-			currentVertex = previous;
 		}
+		return distances;
+	}
+
+	/**
+	 * @return the id of each town in the snapshot, -1 for towns not in it
+	 */
+	private static int[] ids(GraphSnapshot snapshot, List<Town> towns) {
+		int[] ids = new int[towns.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = snapshot.id(towns.get(i));
+		}
+		return ids;
+	}
+
+	/**
+	 * Turns on caching of complete shortest path trees, one per source, for
+	 * workloads that ask for many paths from a few sources. With the cache on,
+	 * shortestPath under {@link SearchStrategy#DIJKSTRA} builds the whole tree
+	 * from its source instead of stopping at the destination, and later queries
+	 * from the same source only walk the cached tree back from their destination.
+	 * The least recently used tree is dropped when the cache is full, and every
+	 * modification of the graph empties it. Each tree takes about 12 bytes per
+	 * vertex.
+	 *
+	 * @param capacity the number of trees to keep, or 0 to turn caching off
+	 */
+	public void setTreeCacheCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity cannot be negative.");
+		}
+		treeCache = capacity == 0 ? null : new ShortestPathTreeCache(capacity);
+	}
+
+	/**
+	 * Preprocesses the graph into a contraction hierarchy, which shortestPath uses
+	 * under {@link SearchStrategy#CONTRACTION_HIERARCHIES}. Preprocessing is slow
+	 * on large graphs but makes each query touch only a small part of the graph.
+	 * Any modification makes the hierarchy stale and queries fall back to
+	 * Dijkstra until it is built again.
+	 */
+	public void buildContractionHierarchy() {
+		GraphSnapshot snapshot = current;
+		if (!hasContractionHierarchy()) {
+			hierarchy = new ContractionHierarchy(view(snapshot), snapshot.version());
+		}
+	}
+
+	/**
+	 * @return true if a contraction hierarchy exists and the graph has not been
+	 *         modified since it was built
+	 */
+	public boolean hasContractionHierarchy() {
+		ContractionHierarchy hierarchy = this.hierarchy;
+		return hierarchy != null && hierarchy.version() == current.version();
+	}
+
+	/**
+	 * Precomputes the shortest distance and next hop between every pair of
+	 * vertices, in parallel on the common ForkJoinPool, after which shortestPath
+	 * and distanceMatrix answer from the table whatever the search strategy.
+	 * Floyd-Warshall is used for dense graphs and one Dijkstra search per vertex
+	 * for sparse ones. The table takes 8 bytes per pair of vertices, so this is
+	 * meant for graphs of a few thousand towns. Any modification makes the table
+	 * stale and queries go back to searching until it is built again.
+	 *
+	 * @throws IllegalStateException if the graph has too many vertices for a
+	 *                               table to be allocated
+	 */
+	public void buildAllPairsShortestPaths() {
+		GraphSnapshot snapshot = current;
+		if (!hasAllPairsShortestPaths()) {
+			allPairs = new AllPairsShortestPaths(view(snapshot), snapshot.version(), ForkJoinPool.commonPool());
+		}
+	}
+
+	/**
+	 * @return true if an all-pairs table exists and the graph has not been
+	 *         modified since it was built
+	 */
+	public boolean hasAllPairsShortestPaths() {
+		AllPairsShortestPaths allPairs = this.allPairs;
+		return allPairs != null && allPairs.version() == current.version();
+	}
+
+	/**
+	 * Makes complete shortest path trees, as built by dijkstraShortestPath and
+	 * for the tree cache, come from parallel delta-stepping on the common
+	 * ForkJoinPool instead of sequential Dijkstra. Distances are the same; the
+	 * tree is too unless shortest paths tie. This pays off for full trees over
+	 * large graphs, such as isochrones, on machines with many cores; the average
+	 * road weight is a reasonable bucket width to start tuning from.
+	 *
+	 * @param delta the bucket width, or 0 to build trees sequentially
+	 */
+	public void setParallelTreeDelta(int delta) {
+		if (delta < 0) {
+			throw new IllegalArgumentException("Delta cannot be negative.");
+		}
+		treeDelta = delta;
+	}
+
+	public int getParallelTreeDelta() {
+		return treeDelta;
+	}
+
+	/**
+	 * @return figures from the last tree built with delta-stepping, including
+	 *         the parallelism it achieved, or null if none has been built
+	 */
+	public DeltaSteppingStatistics getDeltaSteppingStatistics() {
+		return deltaSteppingStatistics;
+	}
+
+	/**
+	 * Turns counting of the work the graph does on or off. With metrics on,
+	 * queries are timed and searches, caches, bulk loads and modifications are
+	 * counted, without locks, from however many threads use the graph; with them
+	 * off, which is the default, none of this costs more than a null check.
+	 * Turning metrics on when they are already on keeps the counts.
+	 *
+	 * @param enabled true to count, false to stop and drop the counts
+	 */
+	public void setMetricsEnabled(boolean enabled) {
+		if (!enabled) {
+			metrics = null;
+		} else if (metrics == null) {
+			metrics = new RoutingMetrics();
+		}
+	}
+
+	public boolean isMetricsEnabled() {
+		return metrics != null;
+	}
+
+	/**
+	 * Starts the counts over, if metrics are on.
+	 */
+	public void resetMetrics() {
+		if (metrics != null) {
+			metrics = new RoutingMetrics();
+		}
+	}
+
+	/**
+	 * @return the counts since metrics were turned on or last reset, or null if
+	 *         metrics are off
+	 */
+	public GraphMetrics getMetrics() {
+		RoutingMetrics metrics = this.metrics;
+		return metrics == null ? null : metrics.snapshot();
+	}
+
+	/**
+	 * @return the live metrics, or null if they are off
+	 */
+	RoutingMetrics metrics() {
+		return metrics;
+	}
+
+	/**
+	 * Counts changes to the graph, if metrics are on.
+	 */
+	private void mutated(long changes) {
+		RoutingMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.mutated(changes);
+		}
+	}
 
-		if (!path.isEmpty() && !path.get(0).startsWith(sourceVertex.getName())) {
-			path.clear();
+	/**
+	 * Selects the algorithm shortestPath uses. The default is
+	 * {@link SearchStrategy#DIJKSTRA}.
+	 *
+	 * @param searchStrategy the algorithm to use for point-to-point queries
+	 */
+	public void setSearchStrategy(SearchStrategy searchStrategy) {
+		if (searchStrategy == null) {
+			throw new NullPointerException();
 		}
+		this.searchStrategy = searchStrategy;
+	}
+
+	public SearchStrategy getSearchStrategy() {
+		return searchStrategy;
+	}
+
+	/**
+	 * Returns the latest version of the graph. The snapshot never changes, and
+	 * queries against it never wait for writers, so a reader can take one and
+	 * run any number of queries against a consistent graph while roads are added
+	 * and removed. Taking a snapshot costs nothing; each modification of the
+	 * graph copies only the adjacency it touches.
+	 *
+	 * @return the latest published version of the graph
+	 */
+	public GraphSnapshot snapshot() {
+		return current;
+	}
 
-		return path;
+	/**
+	 * @param v       a vertex
+	 * @param version version of the graph
+	 * @return the id the vertex had in that version, or -1 if it was not in the
+	 *         graph then
+	 */
+	int vertexId(Town v, long version) {
+		if (v == null) {
+			return -1;
+		}
+		for (VertexEntry entry = vertexIds.get(v); entry != null; entry = entry.previous) {
+			if (entry.added <= version && version < entry.removed) {
+				return entry.id;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the frozen view if it was built from the snapshot, otherwise the
+	 *         snapshot itself
+	 */
+	private AdjacencyView view(GraphSnapshot snapshot) {
+		CsrGraph view = frozenView;
+		return view != null && view.version() == snapshot.version() ? view : snapshot;
+	}
+
+	/**
+	 * Key of the edge index for the road between two vertices. The smaller id
+	 * goes in the high half so both orders of the pair map to the same key. The
+	 * pair is then multiplied by an odd constant, which keeps keys distinct but
+	 * spreads them: Long.hashCode folds the two halves together with xor, so the
+	 * raw pairs of a graph with ids below 2^k all hash below 2^k and pile up in
+	 * a few tree bins.
+	 */
+	private static long edgeKey(int source, int destination) {
+		int low = Math.min(source, destination);
+		int high = Math.max(source, destination);
+		return (((long) low << 32) | high) * 0x9E3779B97F4A7C15L;
+	}
+
+	/**
+	 * The id of a vertex and the range of versions it held it in. When a vertex is
+	 * removed and added again, the new entry links to the old one so older
+	 * snapshots still find it, until no snapshot of those versions is left and
+	 * {@link Graph#sweep()} drops it.
+	 */
+	private static class VertexEntry {
+		final int id;
+		final long added;
+		final long removed;
+		final VertexEntry previous;
+
+		VertexEntry(int id, long added, long removed, VertexEntry previous) {
+			this.id = id;
+			this.added = added;
+			this.removed = removed;
+			this.previous = previous;
+		}
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,231 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks for the hot paths of {@link Graph} and {@link TownGraphManager},
+ * run over networks of several sizes and shapes made by
+ * {@link RoadNetworkGenerator}. Each benchmark is warmed up, then measured in
+ * timed iterations, and reports throughput, average time per operation, and,
+ * like the GC profiler of JMH, the allocation rate and the bytes allocated per
+ * operation, read from the thread's allocation counter.
+ *
+ * JMH itself cannot be used: it rejects benchmark classes in the default
+ * package, which is where every class of this project lives. Run with
+ *
+ * <pre>
+ * java GraphBenchmark [sizes=1000,10000] [shapes=GRID,HIGHWAY] [only=getEdge,getPath]
+ * </pre>
+ *
+ * Queries draw their towns from a fixed, seeded sequence so every run measures
+ * the same work.
+ */
+public class GraphBenchmark {
+	private static final int QUERIES = 1024;
+	private static final long WARMUP_NANOS = 2_000_000_000L;
+	private static final int ITERATIONS = 5;
+	private static final long ITERATION_NANOS = 1_000_000_000L;
+
+	private static volatile int sink;
+
+	/**
+	 * One benchmarked operation.
+	 */
+	interface Operation {
+		/**
+		 * @param i index of the query to run, cycling through 0 to QUERIES - 1
+		 * @return the result, which is consumed so the call cannot be optimized
+		 *         away
+		 */
+		Object run(int i) throws Exception;
+	}
+
+	/**
+	 * A graph and a manager over the same generated network, with seeded
+	 * queries over them.
+	 */
+	static class Fixture {
+		final Graph graph = new Graph();
+		final Town[] towns;
+		final Town[] edgeSources = new Town[QUERIES];
+		final Town[] edgeDestinations = new Town[QUERIES];
+		final Town[] querySources = new Town[QUERIES];
+		final Town[] queryDestinations = new Town[QUERIES];
+		final String[] sourceNames = new String[QUERIES];
+		final String[] destinationNames = new String[QUERIES];
+		final TownGraphManager manager = new TownGraphManager();
+		final File roadFile;
+
+		Fixture(int size, RoadNetworkGenerator.Shape shape) throws IOException {
+			RoadNetworkGenerator generator = new RoadNetworkGenerator(shape, size, 42);
+			towns = generator.addTo(graph);
+			// edgeSet iterates in hash order, which changes from run to run, so the
+			// roads are put in a fixed order before they are sampled.
+			List<Road> roads = new ArrayList<>(graph.edgeSet());
+			roads.sort(Comparator.comparing((Road road) -> road.getSource().getName())
+					.thenComparing(road -> road.getDestination().getName()).thenComparing(Road::getName));
+			Random random = new Random(7);
+			for (int i = 0; i < QUERIES; i++) {
+				Road road = roads.get(random.nextInt(roads.size()));
+				edgeSources[i] = road.getSource();
+				edgeDestinations[i] = road.getDestination();
+				querySources[i] = towns[random.nextInt(towns.length)];
+				queryDestinations[i] = towns[random.nextInt(towns.length)];
+				sourceNames[i] = querySources[i].getName();
+				destinationNames[i] = queryDestinations[i].getName();
+			}
+			roadFile = File.createTempFile("roads", ".txt");
+			roadFile.deleteOnExit();
+			generator.write(roadFile);
+			manager.populateTownGraph(roadFile);
+		}
+	}
+
+	/**
+	 * @return the benchmarks over a fixture, by name, in the order they run
+	 */
+	static Map<String, Operation> benchmarks(Fixture f) {
+		Map<String, Operation> benchmarks = new LinkedHashMap<>();
+		// Adds a road between two towns that are usually not joined, then removes
+		// it so the graph stays the same from one operation to the next.
+		benchmarks.put("addEdge", i -> {
+			Road road = f.graph.addEdge(f.querySources[i], f.queryDestinations[i], 1, "Benchmark road");
+			if (road != null) {
+				f.graph.removeEdge(f.querySources[i], f.queryDestinations[i], 1, "Benchmark road");
+			}
+			return road;
+		});
+		benchmarks.put("getEdge", i -> f.graph.getEdge(f.edgeSources[i], f.edgeDestinations[i]));
+		benchmarks.put("containsEdge", i -> f.graph.containsEdge(f.querySources[i], f.queryDestinations[i]));
+		benchmarks.put("edgeSet", i -> f.graph.edgeSet());
+		benchmarks.put("dijkstraShortestPath", i -> {
+			f.graph.dijkstraShortestPath(f.querySources[i]);
+			return f.querySources[i];
+		});
+		benchmarks.put("shortestPath", i -> f.graph.shortestPath(f.querySources[i], f.queryDestinations[i]));
+		benchmarks.put("getPath", i -> f.manager.getPath(f.sourceNames[i], f.destinationNames[i]));
+		benchmarks.put("getTown", i -> f.manager.getTown(f.sourceNames[i]));
+		benchmarks.put("populateTownGraph", i -> {
+			TownGraphManager manager = new TownGraphManager();
+			manager.populateTownGraph(f.roadFile);
+			return manager;
+		});
+		return benchmarks;
+	}
+
+	/**
+	 * Warms an operation up, then measures it.
+	 *
+	 * @return throughput in operations per second, average microseconds per
+	 *         operation, allocation rate in MB per second, bytes allocated per
+	 *         operation, and milliseconds spent in garbage collection
+	 */
+	static double[] measure(Operation operation) throws Exception {
+		run(operation, WARMUP_NANOS);
+		long operations = 0;
+		long nanos = 0;
+		long bytes = 0;
+		long gcMillis = gcMillis();
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+			operations += run(operation, ITERATION_NANOS);
+			nanos += System.nanoTime() - start;
+			bytes += allocatedBytes() - allocatedBefore;
+		}
+		double seconds = nanos / 1e9;
+		return new double[] { operations / seconds, nanos / 1e3 / operations, bytes / 1e6 / seconds,
+				(double) bytes / operations, gcMillis() - gcMillis };
+	}
+
+	/**
+	 * Runs an operation over and over for at least the given time. Operations
+	 * run in batches, doubled until a batch takes long enough that reading the
+	 * clock after each one costs nothing in comparison.
+	 *
+	 * @return the number of operations run
+	 */
+	private static long run(Operation operation, long nanos) throws Exception {
+		long end = System.nanoTime() + nanos;
+		long operations = 0;
+		int batch = 1;
+		int hash = 0;
+		long now;
+		do {
+			long start = System.nanoTime();
+			for (int k = 0; k < batch; k++) {
+				Object result = operation.run((int) (operations++ & (QUERIES - 1)));
+				hash += result == null ? 0 : System.identityHashCode(result);
+			}
+			now = System.nanoTime();
+			if (now - start < 100_000 && batch < 1 << 16) {
+				batch *= 2;
+			}
+		} while (now < end);
+		sink += hash;
+		return operations;
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, collector.getCollectionTime());
+		}
+		return millis;
+	}
+
+	/**
+	 * Runs the benchmarks and prints one line of results for each.
+	 *
+	 * @param args optional sizes=, shapes= and only= lists, comma separated
+	 * @throws Exception if a benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		List<String> sizes = Arrays.asList("1000", "10000", "100000");
+		List<String> shapes = Arrays.asList("GRID", "RANDOM_GEOMETRIC", "SCALE_FREE", "HIGHWAY");
+		List<String> only = null;
+		for (String arg : args) {
+			List<String> values = Arrays.asList(arg.substring(arg.indexOf('=') + 1).split(","));
+			if (arg.startsWith("sizes=")) {
+				sizes = values;
+			} else if (arg.startsWith("shapes=")) {
+				shapes = values;
+			} else if (arg.startsWith("only=")) {
+				only = values;
+			} else {
+				throw new IllegalArgumentException("Unknown argument " + arg);
+			}
+		}
+
+		System.out.printf(Locale.ROOT, "%-22s %-16s %8s %14s %12s %12s %14s %8s%n", "Benchmark", "Shape", "Towns",
+				"ops/s", "us/op", "MB/s alloc", "B/op alloc", "GC ms");
+		for (String shape : shapes) {
+			for (String size : sizes) {
+				Fixture fixture = new Fixture(Integer.parseInt(size), RoadNetworkGenerator.Shape.valueOf(shape));
+				for (Map.Entry<String, Operation> benchmark : benchmarks(fixture).entrySet()) {
+					String name = benchmark.getKey();
+					if (only != null && !only.contains(name)) {
+						continue;
+					}
+					double[] result = measure(benchmark.getValue());
+					System.out.printf(Locale.ROOT, "%-22s %-16s %8s %14.1f %12.3f %12.1f %14.1f %8.0f%n", name, shape,
+							size, result[0], result[1], result[2], result[3], result[4]);
+				}
+			}
+		}
+	}
+}
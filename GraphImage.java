@@ -0,0 +1,254 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A graph in a compact binary file that loads with almost no parsing. Every
+ * distinct town and road name is stored once in a table of UTF-8 strings, the
+ * towns are numbered densely from 0, and the roads are four packed int arrays:
+ * source, destination, weight and name, the towns given by number and the name
+ * by its place in the table (-1 for none). Loading maps the file and copies
+ * each array out in one bulk read, so its cost is about that of reading the
+ * file.
+ *
+ * Layout, all numbers big-endian:
+ *
+ * <pre>
+ * int    magic "TGIM"
+ * int    format version
+ * int    strings, towns, roads, bytes of string data
+ * int    length of each string in bytes [strings]
+ * double latitude and longitude of each town [towns * 2]
+ * int    name of each town [towns]
+ * int    source, destination, weight and name of each road [roads] x 4
+ * byte   1 if the town has coordinates, else 0 [towns]
+ * byte   string data [bytes]
+ * </pre>
+ *
+ * The whole image is mapped at once, so it must stay under 2 GB.
+ */
+class GraphImage {
+	static final int MAGIC = 0x5447494D;
+	static final int FORMAT_VERSION = 1;
+	private static final int HEADER = 24;
+
+	final Town[] towns;
+	final int[] sources;
+	final int[] destinations;
+	final int[] weights;
+	final String[] names;
+
+	private GraphImage(Town[] towns, int[] sources, int[] destinations, int[] weights, String[] names) {
+		this.towns = towns;
+		this.sources = sources;
+		this.destinations = destinations;
+		this.weights = weights;
+		this.names = names;
+	}
+
+	/**
+	 * Writes one version of a graph to a file, replacing the file if it exists.
+	 *
+	 * @param snapshot the version to write
+	 * @param file     the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	static void write(GraphSnapshot snapshot, Path file) throws IOException {
+		int capacity = snapshot.vertexCapacity();
+		int[] dense = new int[capacity];
+		int townCount = 0;
+		int roadCount = 0;
+		for (int id = 0; id < capacity; id++) {
+			if (snapshot.town(id) == null) {
+				dense[id] = -1;
+				continue;
+			}
+			dense[id] = townCount++;
+			for (int i = 0; i < snapshot.degree(id); i++) {
+				if (snapshot.neighbor(id, i) >= id) {
+					roadCount++;
+				}
+			}
+		}
+
+		Map<String, Integer> strings = new HashMap<>();
+		Town[] towns = new Town[townCount];
+		int[] townNames = new int[townCount];
+		int[] sources = new int[roadCount];
+		int[] destinations = new int[roadCount];
+		int[] weights = new int[roadCount];
+		int[] roadNames = new int[roadCount];
+		int road = 0;
+		for (int id = 0; id < capacity; id++) {
+			Town town = snapshot.town(id);
+			if (town == null) {
+				continue;
+			}
+			towns[dense[id]] = town;
+			townNames[dense[id]] = intern(town.getName(), strings);
+			for (int i = 0; i < snapshot.degree(id); i++) {
+				int neighbor = snapshot.neighbor(id, i);
+				if (neighbor < id) {
+					continue;
+				}
+				Road r = snapshot.road(id, i);
+				boolean forward = r.getSource().equals(town);
+				sources[road] = dense[forward ? id : neighbor];
+				destinations[road] = dense[forward ? neighbor : id];
+				weights[road] = snapshot.weight(id, i);
+				roadNames[road] = r.getName() == null ? -1 : intern(r.getName(), strings);
+				road++;
+			}
+		}
+		byte[][] encoded = new byte[strings.size()][];
+		int stringBytes = 0;
+		for (Map.Entry<String, Integer> entry : strings.entrySet()) {
+			byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			encoded[entry.getValue()] = bytes;
+			stringBytes += bytes.length;
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(encoded.length);
+			out.writeInt(townCount);
+			out.writeInt(roadCount);
+			out.writeInt(stringBytes);
+			for (byte[] bytes : encoded) {
+				out.writeInt(bytes.length);
+			}
+			for (Town town : towns) {
+				out.writeDouble(town.getLatitude());
+				out.writeDouble(town.getLongitude());
+			}
+			writeAll(out, townNames);
+			writeAll(out, sources);
+			writeAll(out, destinations);
+			writeAll(out, weights);
+			writeAll(out, roadNames);
+			for (Town town : towns) {
+				out.writeByte(town.hasCoordinates() ? 1 : 0);
+			}
+			for (byte[] bytes : encoded) {
+				out.write(bytes);
+			}
+		}
+	}
+
+	/**
+	 * Reads an image written by {@link #write(GraphSnapshot, Path)}.
+	 *
+	 * @param file the file to read
+	 * @return the towns and roads of the image, the towns new objects
+	 * @throws IOException if the file cannot be read or is not a graph image of a
+	 *                     known version
+	 */
+	static GraphImage read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER) {
+				throw new IOException("Not a graph image: " + file);
+			}
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Graph image too large to map: " + file);
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not a graph image: " + file);
+			}
+			int version = buffer.getInt();
+			if (version != FORMAT_VERSION) {
+				throw new IOException("Unsupported graph image version " + version + ": " + file);
+			}
+			int stringCount = buffer.getInt();
+			int townCount = buffer.getInt();
+			int roadCount = buffer.getInt();
+			int stringBytes = buffer.getInt();
+			long expected = HEADER + 4L * stringCount + 21L * townCount + 16L * roadCount + stringBytes;
+			if (stringCount < 0 || townCount < 0 || roadCount < 0 || stringBytes < 0 || expected != size) {
+				throw corrupt(file);
+			}
+
+			int[] lengths = readInts(buffer, stringCount);
+			double[] coordinates = new double[townCount * 2];
+			buffer.asDoubleBuffer().get(coordinates);
+			buffer.position(buffer.position() + townCount * 16);
+			int[] townNames = readInts(buffer, townCount);
+			int[] sources = readInts(buffer, roadCount);
+			int[] destinations = readInts(buffer, roadCount);
+			int[] weights = readInts(buffer, roadCount);
+			int[] roadNames = readInts(buffer, roadCount);
+			byte[] located = new byte[townCount];
+			buffer.get(located);
+			byte[] data = new byte[stringBytes];
+			buffer.get(data);
+
+			String[] strings = new String[stringCount];
+			int offset = 0;
+			for (int i = 0; i < stringCount; i++) {
+				if (lengths[i] < 0 || lengths[i] > stringBytes - offset) {
+					throw corrupt(file);
+				}
+				strings[i] = new String(data, offset, lengths[i], StandardCharsets.UTF_8);
+				offset += lengths[i];
+			}
+			Town[] towns = new Town[townCount];
+			for (int i = 0; i < townCount; i++) {
+				if (townNames[i] < 0 || townNames[i] >= stringCount) {
+					throw corrupt(file);
+				}
+				String name = strings[townNames[i]];
+				towns[i] = located[i] == 0 ? new Town(name)
+						: new Town(name, coordinates[i * 2], coordinates[i * 2 + 1]);
+			}
+			String[] names = new String[roadCount];
+			for (int i = 0; i < roadCount; i++) {
+				if (sources[i] < 0 || sources[i] >= townCount || destinations[i] < 0
+						|| destinations[i] >= townCount || weights[i] < 0 || roadNames[i] < -1
+						|| roadNames[i] >= stringCount) {
+					throw corrupt(file);
+				}
+				names[i] = roadNames[i] == -1 ? null : strings[roadNames[i]];
+			}
+			return new GraphImage(towns, sources, destinations, weights, names);
+		}
+	}
+
+	/**
+	 * @return the place of a string in the table, adding it if it is new
+	 */
+	private static int intern(String s, Map<String, Integer> strings) {
+		Integer index = strings.get(s);
+		if (index == null) {
+			index = strings.size();
+			strings.put(s, index);
+		}
+		return index;
+	}
+
+	private static void writeAll(DataOutputStream out, int[] values) throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	private static int[] readInts(ByteBuffer buffer, int count) {
+		int[] values = new int[count];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + count * 4);
+		return values;
+	}
+
+	private static IOException corrupt(Path file) {
+		return new IOException("Corrupt graph image: " + file);
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * Figures on the work a graph has done since metrics were turned on or last
+ * reset, as returned by {@link Graph#getMetrics()}. A search settles a town
+ * when it takes the town off its queue with a final distance, and relaxes a
+ * road when it finds a shorter way to the town at its far end; the two measure
+ * how much of the graph each query had to touch.
+ *
+ * Latency percentiles are read from a histogram whose buckets are within an
+ * eighth of the values they hold, so they are accurate to about 12%.
+ */
+public class GraphMetrics {
+	private final long elapsedNanos;
+	private final long queries;
+	private final long queryNanos;
+	private final long[] latencies;
+	private final long settled;
+	private final long relaxed;
+	private final long heapPushes;
+	private final long heapPops;
+	private final long treeCacheHits;
+	private final long treeCacheMisses;
+	private final long routeCacheHits;
+	private final long routeCacheMisses;
+	private final long allPairsAnswers;
+	private final long loads;
+	private final long roadsLoaded;
+	private final long loadNanos;
+	private final long mutations;
+
+	GraphMetrics(long elapsedNanos, long queries, long queryNanos, long[] latencies, long settled, long relaxed,
+			long heapPushes, long heapPops, long treeCacheHits, long treeCacheMisses, long routeCacheHits,
+			long routeCacheMisses, long allPairsAnswers, long loads, long roadsLoaded, long loadNanos,
+			long mutations) {
+		this.elapsedNanos = elapsedNanos;
+		this.queries = queries;
+		this.queryNanos = queryNanos;
+		this.latencies = latencies;
+		this.settled = settled;
+		this.relaxed = relaxed;
+		this.heapPushes = heapPushes;
+		this.heapPops = heapPops;
+		this.treeCacheHits = treeCacheHits;
+		this.treeCacheMisses = treeCacheMisses;
+		this.routeCacheHits = routeCacheHits;
+		this.routeCacheMisses = routeCacheMisses;
+		this.allPairsAnswers = allPairsAnswers;
+		this.loads = loads;
+		this.roadsLoaded = roadsLoaded;
+		this.loadNanos = loadNanos;
+		this.mutations = mutations;
+	}
+
+	/**
+	 * @return the time since metrics were turned on or last reset
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return the number of shortest paths the graph has been asked for
+	 */
+	public long getQueries() {
+		return queries;
+	}
+
+	/**
+	 * @return the average time to answer a shortest path query
+	 */
+	public double getMeanLatencyNanos() {
+		return queries == 0 ? 0 : (double) queryNanos / queries;
+	}
+
+	/**
+	 * @param percentile the percentage of queries, from 0 to 100
+	 * @return a time at least as long as that percentage of queries took, 0 if
+	 *         no query has been answered
+	 */
+	public long getLatencyPercentileNanos(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+		}
+		if (queries == 0) {
+			return 0;
+		}
+		long total = 0;
+		for (long count : latencies) {
+			total += count;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < latencies.length; i++) {
+			seen += latencies[i];
+			if (seen >= rank) {
+				return RoutingMetrics.highestValue(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the number of towns taken off a search queue with a final distance
+	 */
+	public long getVerticesSettled() {
+		return settled;
+	}
+
+	/**
+	 * @return the number of times a search lowered the distance to a town
+	 */
+	public long getEdgesRelaxed() {
+		return relaxed;
+	}
+
+	/**
+	 * @return the number of towns inserted into search queues
+	 */
+	public long getHeapPushes() {
+		return heapPushes;
+	}
+
+	/**
+	 * @return the number of towns taken off search queues
+	 */
+	public long getHeapPops() {
+		return heapPops;
+	}
+
+	public long getTreeCacheHits() {
+		return treeCacheHits;
+	}
+
+	public long getTreeCacheMisses() {
+		return treeCacheMisses;
+	}
+
+	/**
+	 * @return the share of shortest path tree lookups the tree cache answered,
+	 *         0 if it was never asked
+	 */
+	public double getTreeCacheHitRatio() {
+		return ratio(treeCacheHits, treeCacheMisses);
+	}
+
+	/**
+	 * @return the number of TownGraphManager getPath calls answered from its
+	 *         route cache
+	 */
+	public long getRouteCacheHits() {
+		return routeCacheHits;
+	}
+
+	public long getRouteCacheMisses() {
+		return routeCacheMisses;
+	}
+
+	/**
+	 * @return the share of getPath calls the route cache answered, 0 if it was
+	 *         never asked
+	 */
+	public double getRouteCacheHitRatio() {
+		return ratio(routeCacheHits, routeCacheMisses);
+	}
+
+	/**
+	 * @return the number of queries answered from the all-pairs table without a
+	 *         search
+	 */
+	public long getAllPairsAnswers() {
+		return allPairsAnswers;
+	}
+
+	/**
+	 * @return the number of bulk loads: road files, graph images and road
+	 *         batches
+	 */
+	public long getLoads() {
+		return loads;
+	}
+
+	/**
+	 * @return the number of roads the bulk loads added
+	 */
+	public long getRoadsLoaded() {
+		return roadsLoaded;
+	}
+
+	/**
+	 * @return the time spent in bulk loads, reading included
+	 */
+	public long getLoadNanos() {
+		return loadNanos;
+	}
+
+	/**
+	 * @return roads added per second of loading, 0 if nothing was loaded
+	 */
+	public double getLoadRoadsPerSecond() {
+		return loadNanos == 0 ? 0 : roadsLoaded * 1e9 / loadNanos;
+	}
+
+	/**
+	 * @return the number of towns and roads added or removed and locations set
+	 */
+	public long getMutations() {
+		return mutations;
+	}
+
+	/**
+	 * @return mutations per second since metrics were turned on or last reset
+	 */
+	public double getMutationsPerSecond() {
+		return elapsedNanos == 0 ? 0 : mutations * 1e9 / elapsedNanos;
+	}
+
+	private static double ratio(long hits, long misses) {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	@Override
+	public String toString() {
+		return queries + " queries, p50 " + getLatencyPercentileNanos(50) / 1000 + " us, p99 "
+				+ getLatencyPercentileNanos(99) / 1000 + " us, " + settled + " settled, " + relaxed + " relaxed, "
+				+ String.format("tree cache %.2f, route cache %.2f, ", getTreeCacheHitRatio(), getRouteCacheHitRatio())
+				+ roadsLoaded + " roads loaded at " + String.format("%.0f", getLoadRoadsPerSecond()) + "/s, "
+				+ mutations + " mutations";
+	}
+}
@@ -0,0 +1,504 @@
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An immutable version of a {@link Graph}, as returned by
+ * {@link Graph#snapshot()}. Queries against a snapshot always see the graph as
+ * it was when the snapshot was taken, no matter what is added or removed
+ * afterwards, and never wait for writers.
+ *
+ * The arcs of each vertex are kept in exact-length arrays held by a record per
+ * vertex. Records are grouped into pages of 256, reached through a directory.
+ * A writer copies only what it touches: the directory, the pages of the
+ * vertices it changes and the records of those vertices. Everything else is
+ * shared with the previous version, so a change to one road costs a few small
+ * copies rather than a copy of the graph.
+ */
+public class GraphSnapshot implements AdjacencyView {
+	private static final int PAGE_BITS = 8;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private static final int[] NO_INTS = new int[0];
+	private static final Road[] NO_ROADS = new Road[0];
+
+	private final Graph owner;
+	private final Vertex[][] pages;
+	private final int capacity;
+	private final FreeId freeIds;
+	private final long version;
+	private final double scale;
+	private final long unlocatedRoads;
+
+	/**
+	 * Creates the empty first version of a graph.
+	 *
+	 * @param owner the graph the snapshot belongs to
+	 */
+	GraphSnapshot(Graph owner) {
+		this(owner, new Vertex[0][], 0, null, 0, Double.POSITIVE_INFINITY, 0);
+	}
+
+	private GraphSnapshot(Graph owner, Vertex[][] pages, int capacity, FreeId freeIds, long version, double scale,
+			long unlocatedRoads) {
+		this.owner = owner;
+		this.pages = pages;
+		this.capacity = capacity;
+		this.freeIds = freeIds;
+		this.version = version;
+		this.scale = scale;
+		this.unlocatedRoads = unlocatedRoads;
+	}
+
+	/**
+	 * @return the modification count of the graph when this version was
+	 *         published; later versions have larger counts
+	 */
+	public long version() {
+		return version;
+	}
+
+	/**
+	 * @param v vertex to look for
+	 * @return true if the vertex was in the graph in this version
+	 */
+	public boolean containsVertex(Town v) {
+		return id(v) != -1;
+	}
+
+	/**
+	 * @param sourceVertex      one end of the edge
+	 * @param destinationVertex the other end of the edge
+	 * @return true if the two vertices were joined by an edge in this version
+	 */
+	public boolean containsEdge(Town sourceVertex, Town destinationVertex) {
+		return getEdge(sourceVertex, destinationVertex) != null;
+	}
+
+	/**
+	 * Looks the edge up by scanning the arcs of whichever end has fewer.
+	 *
+	 * @param sourceVertex      one end of the edge
+	 * @param destinationVertex the other end of the edge
+	 * @return the edge joining the two vertices in this version, or null
+	 */
+	public Road getEdge(Town sourceVertex, Town destinationVertex) {
+		int source = id(sourceVertex);
+		int destination = id(destinationVertex);
+		if (source == -1 || destination == -1) {
+			return null;
+		}
+		if (degree(destination) < degree(source)) {
+			int swap = source;
+			source = destination;
+			destination = swap;
+		}
+		Vertex vertex = vertex(source);
+		for (int i = 0; i < vertex.neighbors.length; i++) {
+			if (vertex.neighbors[i] == destination) {
+				return vertex.roads[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the vertices of this version
+	 */
+	public Set<Town> vertexSet() {
+		Set<Town> set = new HashSet<>();
+		for (int id = 0; id < capacity; id++) {
+			Vertex vertex = vertex(id);
+			if (vertex != null) {
+				set.add(vertex.town);
+			}
+		}
+		return Collections.unmodifiableSet(set);
+	}
+
+	/**
+	 * @return the edges of this version
+	 */
+	public Set<Road> edgeSet() {
+		Set<Road> set = new HashSet<>();
+		for (int id = 0; id < capacity; id++) {
+			Vertex vertex = vertex(id);
+			if (vertex != null) {
+				for (int i = 0; i < vertex.neighbors.length; i++) {
+					if (vertex.neighbors[i] >= id) {
+						set.add(vertex.roads[i]);
+					}
+				}
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * @param vertex a vertex of this version
+	 * @return the edges touching the vertex in this version
+	 * @throws NullPointerException     if the vertex is null
+	 * @throws IllegalArgumentException if the vertex is not in this version
+	 */
+	public Set<Road> edgesOf(Town vertex) {
+		if (vertex == null) {
+			throw new NullPointerException();
+		}
+		int id = id(vertex);
+		if (id == -1) {
+			throw new IllegalArgumentException("Vertex not found in graph.");
+		}
+		return new HashSet<>(Arrays.asList(vertex(id).roads));
+	}
+
+	/**
+	 * Finds the shortest path between two vertices of this version, with the
+	 * search strategy of the graph. See {@link Graph#shortestPath(Town, Town)}.
+	 *
+	 * @param sourceVertex      starting vertex
+	 * @param destinationVertex ending vertex
+	 * @return the hops of the path, empty if there is none
+	 */
+	public ArrayList<String> shortestPath(Town sourceVertex, Town destinationVertex) {
+		return owner.shortestPath(this, sourceVertex, destinationVertex);
+	}
+
+	/**
+	 * Finds the shortest path between two vertices of this version as a route.
+	 * See {@link Graph#route(Town, Town)}.
+	 *
+	 * @param sourceVertex      starting vertex
+	 * @param destinationVertex ending vertex
+	 * @return the route, or null if there is none
+	 */
+	public Route route(Town sourceVertex, Town destinationVertex) {
+		return owner.route(this, sourceVertex, destinationVertex);
+	}
+
+	/**
+	 * @param v a vertex
+	 * @return the id of the vertex in this version, or -1 if it was not in the
+	 *         graph
+	 */
+	int id(Town v) {
+		try {
+			return owner.vertexId(v, version);
+		} finally {
+			// The graph keeps the ids of a version only while the version is
+			// reachable, so it must stay reachable until the lookup is done.
+			Reference.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * The A* heuristic scale for the roads and town locations of this version.
+	 * Editors keep it up to date road by road, so it costs nothing to read. It
+	 * is the smallest weight-to-distance ratio of any road this version or an
+	 * earlier one had at the locations they had; removing a road or moving a
+	 * town never raises it, which keeps it a lower bound for the roads left.
+	 *
+	 * @return the scale, or 0 if there are no roads or some road has an end
+	 *         without coordinates, in which case no bound can be trusted
+	 */
+	double heuristicScale() {
+		return unlocatedRoads > 0 || scale == Double.POSITIVE_INFINITY ? 0 : Math.max(scale, 0);
+	}
+
+	/**
+	 * Starts the next version of the graph from this one.
+	 *
+	 * @return an editor whose changes are invisible until it is published
+	 */
+	Editor edit() {
+		return new Editor(this);
+	}
+
+	@Override
+	public int vertexCapacity() {
+		return capacity;
+	}
+
+	@Override
+	public Town town(int id) {
+		Vertex vertex = vertex(id);
+		return vertex == null ? null : vertex.town;
+	}
+
+	@Override
+	public int degree(int id) {
+		Vertex vertex = vertex(id);
+		return vertex == null ? 0 : vertex.neighbors.length;
+	}
+
+	@Override
+	public int neighbor(int id, int index) {
+		return vertex(id).neighbors[index];
+	}
+
+	@Override
+	public int weight(int id, int index) {
+		return vertex(id).weights[index];
+	}
+
+	@Override
+	public Road road(int id, int index) {
+		return vertex(id).roads[index];
+	}
+
+	private Vertex vertex(int id) {
+		return pages[id >>> PAGE_BITS][id & PAGE_MASK];
+	}
+
+	/**
+	 * A vertex and its arcs. Never modified once published.
+	 */
+	private static class Vertex {
+		final Town town;
+		final int[] neighbors;
+		final int[] weights;
+		final Road[] roads;
+
+		Vertex(Town town, int[] neighbors, int[] weights, Road[] roads) {
+			this.town = town;
+			this.neighbors = neighbors;
+			this.weights = weights;
+			this.roads = roads;
+		}
+	}
+
+	/**
+	 * Persistent stack of released ids, shared between versions.
+	 */
+	private static class FreeId {
+		final int id;
+		final FreeId next;
+
+		FreeId(int id, FreeId next) {
+			this.id = id;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Builds the next version of a graph. The directory is copied when the editor
+	 * is created and each page the first time one of its vertices changes; after
+	 * that changes to the same page are made in place, since no reader can see
+	 * the copies until {@link #publish()} is called. An editor is used by one
+	 * writer and discarded after publishing.
+	 *
+	 * Each road is accounted for the A* heuristic scale once, through its arc
+	 * leaving the end with the smaller id, as it is added, removed or has an end
+	 * moved.
+	 */
+	static class Editor {
+		private final GraphSnapshot base;
+		private Vertex[][] pages;
+		private boolean[] copied;
+		private int capacity;
+		private FreeId freeIds;
+		private double scale;
+		private long unlocatedRoads;
+
+		private Editor(GraphSnapshot base) {
+			this.base = base;
+			this.pages = base.pages.clone();
+			this.copied = new boolean[pages.length];
+			this.capacity = base.capacity;
+			this.freeIds = base.freeIds;
+			this.scale = base.scale;
+			this.unlocatedRoads = base.unlocatedRoads;
+		}
+
+		/**
+		 * Adds a vertex with no arcs, recycling a released id if there is one.
+		 *
+		 * @param town the vertex
+		 * @return id assigned to the vertex
+		 */
+		int addVertex(Town town) {
+			int id;
+			if (freeIds != null) {
+				id = freeIds.id;
+				freeIds = freeIds.next;
+			} else {
+				id = capacity++;
+				if (id >>> PAGE_BITS == pages.length) {
+					pages = Arrays.copyOf(pages, Math.max(4, pages.length * 2));
+					copied = Arrays.copyOf(copied, pages.length);
+				}
+			}
+			set(id, new Vertex(town, NO_INTS, NO_INTS, NO_ROADS));
+			return id;
+		}
+
+		/**
+		 * Replaces the town of a vertex, keeping its arcs.
+		 *
+		 * @param id   vertex id
+		 * @param town a town equal to the one it replaces
+		 */
+		void setTown(int id, Town town) {
+			Vertex vertex = get(id);
+			for (int i = 0; i < vertex.neighbors.length; i++) {
+				int neighbor = vertex.neighbors[i];
+				Town other = neighbor == id ? vertex.town : town(neighbor);
+				account(vertex.town, other, vertex.weights[i], -1);
+				account(town, neighbor == id ? town : other, vertex.weights[i], 1);
+			}
+			set(id, new Vertex(town, vertex.neighbors, vertex.weights, vertex.roads));
+		}
+
+		/**
+		 * Releases the id of a vertex. The caller is responsible for removing the
+		 * arcs of its neighbors that point back at it first.
+		 *
+		 * @param id vertex id
+		 */
+		void removeVertex(int id) {
+			Vertex vertex = get(id);
+			for (int i = 0; i < vertex.neighbors.length; i++) {
+				account(id, vertex.neighbors[i], vertex.weights[i], -1);
+			}
+			set(id, null);
+			freeIds = new FreeId(id, freeIds);
+		}
+
+		/**
+		 * Appends an arc from one vertex to another.
+		 *
+		 * @param from   id of the vertex the arc leaves
+		 * @param to     id of the vertex the arc enters
+		 * @param weight weight of the arc
+		 * @param road   road the arc belongs to
+		 */
+		void addArc(int from, int to, int weight, Road road) {
+			Vertex vertex = get(from);
+			int degree = vertex.neighbors.length;
+			int[] neighbors = Arrays.copyOf(vertex.neighbors, degree + 1);
+			int[] weights = Arrays.copyOf(vertex.weights, degree + 1);
+			Road[] roads = Arrays.copyOf(vertex.roads, degree + 1);
+			neighbors[degree] = to;
+			weights[degree] = weight;
+			roads[degree] = road;
+			set(from, new Vertex(vertex.town, neighbors, weights, roads));
+			account(from, to, weight, 1);
+		}
+
+		/**
+		 * Appends several arcs to one vertex at once, copying its arrays only once.
+		 *
+		 * @param from    id of the vertex the arcs leave
+		 * @param to      ids of the vertices the arcs enter
+		 * @param weights weights of the arcs
+		 * @param roads   roads the arcs belong to
+		 * @param offset  index of the first arc in the three arrays
+		 * @param count   number of arcs to append
+		 */
+		void addArcs(int from, int[] to, int[] weights, Road[] roads, int offset, int count) {
+			Vertex vertex = get(from);
+			int degree = vertex.neighbors.length;
+			int[] newNeighbors = Arrays.copyOf(vertex.neighbors, degree + count);
+			int[] newWeights = Arrays.copyOf(vertex.weights, degree + count);
+			Road[] newRoads = Arrays.copyOf(vertex.roads, degree + count);
+			System.arraycopy(to, offset, newNeighbors, degree, count);
+			System.arraycopy(weights, offset, newWeights, degree, count);
+			System.arraycopy(roads, offset, newRoads, degree, count);
+			set(from, new Vertex(vertex.town, newNeighbors, newWeights, newRoads));
+			for (int i = offset; i < offset + count; i++) {
+				account(from, to[i], weights[i], 1);
+			}
+		}
+
+		/**
+		 * Removes the arc of a vertex that belongs to the given road, keeping the
+		 * order of the remaining arcs.
+		 *
+		 * @param from id of the vertex the arc leaves
+		 * @param road road the arc belongs to
+		 */
+		void removeArc(int from, Road road) {
+			Vertex vertex = get(from);
+			int degree = vertex.neighbors.length;
+			for (int i = 0; i < degree; i++) {
+				if (vertex.roads[i] == road) {
+					int[] neighbors = new int[degree - 1];
+					int[] weights = new int[degree - 1];
+					Road[] roads = new Road[degree - 1];
+					int tail = degree - i - 1;
+					System.arraycopy(vertex.neighbors, 0, neighbors, 0, i);
+					System.arraycopy(vertex.weights, 0, weights, 0, i);
+					System.arraycopy(vertex.roads, 0, roads, 0, i);
+					System.arraycopy(vertex.neighbors, i + 1, neighbors, i, tail);
+					System.arraycopy(vertex.weights, i + 1, weights, i, tail);
+					System.arraycopy(vertex.roads, i + 1, roads, i, tail);
+					set(from, new Vertex(vertex.town, neighbors, weights, roads));
+					account(from, vertex.neighbors[i], vertex.weights[i], -1);
+					return;
+				}
+			}
+		}
+
+		/**
+		 * @param id vertex id
+		 * @return the town with the given id in the version being built
+		 */
+		Town town(int id) {
+			Vertex vertex = get(id);
+			return vertex == null ? null : vertex.town;
+		}
+
+		/**
+		 * @return one more than the highest id assigned so far
+		 */
+		int vertexCapacity() {
+			return capacity;
+		}
+
+		/**
+		 * @return the new version, numbered one more than the one it was built
+		 *         from
+		 */
+		GraphSnapshot publish() {
+			return new GraphSnapshot(base.owner, pages, capacity, freeIds, base.version + 1, scale, unlocatedRoads);
+		}
+
+		/**
+		 * Accounts for an arc added or removed, if it is the arc its road is
+		 * accounted through.
+		 */
+		private void account(int from, int to, int weight, int sign) {
+			if (from <= to) {
+				account(town(from), town(to), weight, sign);
+			}
+		}
+
+		/**
+		 * Accounts for a road between two towns being added, with sign 1, or
+		 * removed, with sign -1. Removing a road only matters when it has an end
+		 * without coordinates, since the scale is never raised.
+		 */
+		private void account(Town a, Town b, int weight, int sign) {
+			if (!a.hasCoordinates() || !b.hasCoordinates()) {
+				unlocatedRoads += sign;
+			} else if (sign > 0) {
+				scale = Math.min(scale, AStarSearch.ratio(a, b, weight));
+			}
+		}
+
+		private Vertex get(int id) {
+			return pages[id >>> PAGE_BITS][id & PAGE_MASK];
+		}
+
+		private void set(int id, Vertex vertex) {
+			int page = id >>> PAGE_BITS;
+			if (!copied[page]) {
+				pages[page] = pages[page] == null ? new Vertex[PAGE_SIZE] : pages[page].clone();
+				copied[page] = true;
+			}
+			pages[page][id & PAGE_MASK] = vertex;
+		}
+	}
+}
@@ -1,10 +1,21 @@
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -106,4 +117,493 @@ class Graph_STUDENT_Test {
 		assertEquals(expected, g.shortestPath(new Town("A"), new Town("C")));
 	}
 
+	@Test
+	void testFreeze() {
+		RoadNetworkGenerator generator = new RoadNetworkGenerator(RoadNetworkGenerator.Shape.HIGHWAY, 600, 11);
+		Town[] towns = generator.addTo(g);
+		g.freeze();
+		assertTrue(g.isFrozen());
+		assertRoutesMatchDijkstra(g, towns, generator, 200);
+		Road road = g.edgesOf(towns[0]).iterator().next();
+		g.removeEdge(road.getSource(), road.getDestination(), road.getWeight(), road.getName());
+		assertFalse(g.isFrozen());
+	}
+
+	@Test
+	void testRemoveVertexRemovesEdges() {
+		g.addVertex(new Town("A"));
+		g.addVertex(new Town("B"));
+		g.addVertex(new Town("C"));
+		g.addEdge(new Town("A"), new Town("B"), 10, "Road 1");
+		g.addEdge(new Town("B"), new Town("C"), 10, "Road 2");
+		g.removeVertex(new Town("A"));
+		assertEquals(1, g.edgeSet().size());
+		assertEquals(1, g.edgesOf(new Town("B")).size());
+		assertTrue(g.addVertex(new Town("D")));
+		assertFalse(g.containsEdge(new Town("D"), new Town("B")));
+	}
+
+	@Test
+	void testBidirectionalShortestPath() {
+		RoadNetworkGenerator generator = new RoadNetworkGenerator(RoadNetworkGenerator.Shape.SCALE_FREE, 1000, 12);
+		Town[] towns = generator.addTo(g);
+		g.setSearchStrategy(SearchStrategy.BIDIRECTIONAL);
+		assertRoutesMatchDijkstra(g, towns, generator, 200);
+	}
+
+	@Test
+	void testAStarShortestPath() {
+		g.addVertex(new Town("Baltimore", 39.29, -76.61));
+		g.addVertex(new Town("Washington", 38.91, -77.04));
+		g.addVertex(new Town("Annapolis", 38.98, -76.49));
+		g.addEdge(new Town("Baltimore"), new Town("Washington"), 40, "I-95");
+		g.addEdge(new Town("Baltimore"), new Town("Annapolis"), 30, "I-97");
+		g.addEdge(new Town("Annapolis"), new Town("Washington"), 32, "US-50");
+		g.setSearchStrategy(SearchStrategy.A_STAR);
+		ArrayList<String> expected = new ArrayList<>();
+		expected.add("Annapolis via I-97 to Baltimore 30 mi");
+		assertEquals(expected, g.shortestPath(new Town("Annapolis"), new Town("Baltimore")));
+		expected.clear();
+		expected.add("Baltimore via I-95 to Washington 40 mi");
+		assertEquals(expected, g.shortestPath(new Town("Baltimore"), new Town("Washington")));
+	}
+
+	@Test
+	void testAStarMatchesDijkstra() {
+		RoadNetworkGenerator generator = new RoadNetworkGenerator(RoadNetworkGenerator.Shape.RANDOM_GEOMETRIC, 1000,
+				13);
+		Town[] towns = generator.addTo(g);
+		g.setSearchStrategy(SearchStrategy.A_STAR);
+		assertRoutesMatchDijkstra(g, towns, generator, 200);
+	}
+
+	@Test
+	void testContractionHierarchyShortestPath() {
+		RoadNetworkGenerator generator = new RoadNetworkGenerator(RoadNetworkGenerator.Shape.HIGHWAY, 900, 14);
+		Town[] towns = generator.addTo(g);
+		g.setSearchStrategy(SearchStrategy.CONTRACTION_HIERARCHIES);
+		g.buildContractionHierarchy();
+		assertTrue(g.hasContractionHierarchy());
+		assertRoutesMatchDijkstra(g, towns, generator, 300);
+		Road road = g.edgesOf(towns[0]).iterator().next();
+		g.removeEdge(road.getSource(), road.getDestination(), road.getWeight(), road.getName());
+		assertFalse(g.hasContractionHierarchy());
+	}
+
+	@Test
+	void testContractionHierarchyZeroWeights() {
+		g.addVertex(new Town("A"));
+		g.addVertex(new Town("B"));
+		g.addVertex(new Town("C"));
+		g.addVertex(new Town("D"));
+		g.addEdge(new Town("A"), new Town("B"), 0, "Road 1");
+		g.addEdge(new Town("B"), new Town("C"), 0, "Road 2");
+		g.addEdge(new Town("C"), new Town("D"), 0, "Road 3");
+		ArrayList<String> expected = g.shortestPath(new Town("A"), new Town("D"));
+		assertEquals(3, expected.size());
+		g.setSearchStrategy(SearchStrategy.CONTRACTION_HIERARCHIES);
+		g.buildContractionHierarchy();
+		for (Town source : g.vertexSet()) {
+			for (Town target : g.vertexSet()) {
+				g.setSearchStrategy(SearchStrategy.DIJKSTRA);
+				ArrayList<String> dijkstra = g.shortestPath(source, target);
+				g.setSearchStrategy(SearchStrategy.CONTRACTION_HIERARCHIES);
+				assertEquals(dijkstra.size(), g.shortestPath(source, target).size());
+			}
+		}
+		assertEquals(expected, g.shortestPath(new Town("A"), new Town("D")));
+	}
+
+	@Test
+	void testShortestPathUsesDijkstraTree() {
+		Town[] towns = new RoadNetworkGenerator(RoadNetworkGenerator.Shape.GRID, 400, 5).addTo(g);
+		g.setMetricsEnabled(true);
+		g.dijkstraShortestPath(towns[0]);
+		long settled = g.getMetrics().getVerticesSettled();
+		assertEquals(400, settled);
+		ArrayList<String> fromTree = g.shortestPath(towns[0], towns[399]);
+		assertEquals(settled, g.getMetrics().getVerticesSettled());
+		Graph fresh = new Graph();
+		new RoadNetworkGenerator(RoadNetworkGenerator.Shape.GRID, 400, 5).addTo(fresh);
+		assertEquals(fresh.shortestPath(towns[0], towns[399]), fromTree);
+		g.addVertex(new Town("Elsewhere"));
+		g.shortestPath(towns[0], towns[399]);
+		assertTrue(g.getMetrics().getVerticesSettled() > settled);
+	}
+
+	@Test
+	void testTreeCache() {
+		RoadNetworkGenerator generator = new RoadNetworkGenerator(RoadNetworkGenerator.Shape.GRID, 400, 15);
+		Town[] towns = generator.addTo(g);
+		Graph reference = new Graph();
+		generator.addTo(reference);
+		g.setTreeCacheCapacity(4);
+		for (int round = 0; round < 2; round++) {
+			for (int s = 0; s < towns.length; s += 97) {
+				for (Town target : towns) {
+					assertEquals(reference.route(towns[s], target).getDistance(), g.route(towns[s], target).getDistance());
+				}
+			}
+			// Removing a road on a cached route must not leave its old tree in use.
+			Road road = g.route(towns[0], towns[399]).getRoads().get(0);
+			g.removeEdge(road.getSource(), road.getDestination(), road.getWeight(), road.getName());
+			reference.removeEdge(road.getSource(), road.getDestination(), road.getWeight(), road.getName());
+		}
+	}
+
+	@Test
+	void testTreeCacheKeepsVersions() {
+		g.addVertex(new Town("A"));
+		g.addVertex(new Town("B"));
+		g.addVertex(new Town("C"));
+		g.addEdge(new Town("A"), new Town("B"), 5, "Road 1");
+		g.addEdge(new Town("B"), new Town("C"), 10, "Road 2");
+		g.addEdge(new Town("A"), new Town("C"), 20, "Road 3");
+		g.setTreeCacheCapacity(4);
+		g.setMetricsEnabled(true);
+		GraphSnapshot before = g.snapshot();
+		g.removeEdge(new Town("B"), new Town("C"), 10, "Road 2");
+		for (int i = 0; i < 3; i++) {
+			assertEquals(2, before.shortestPath(new Town("A"), new Town("C")).size());
+			assertEquals(1, g.shortestPath(new Town("A"), new Town("C")).size());
+		}
+		assertEquals(2, g.getMetrics().getTreeCacheMisses());
+		assertEquals(4, g.getMetrics().getTreeCacheHits());
+	}
+
+	@Test
+	void testConcurrentShortestPath() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			g.addVertex(new Town("T" + i));
+		}
+		for (int i = 0; i + 1 < 20; i++) {
+			g.addEdge(new Town("T" + i), new Town("T" + (i + 1)), 1, "Road " + i);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<Boolean>> results = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			results.add(pool.submit(() -> {
+				for (int i = 0; i < 200; i++) {
+					int end = i % 20;
+					if (g.shortestPath(new Town("T0"), new Town("T" + end)).size() != end) {
+						return false;
+					}
+				}
+				return true;
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			assertTrue(result.get());
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	void testSnapshot() {
+		g.addVertex(new Town("A"));
+		g.addVertex(new Town("B"));
+		g.addVertex(new Town("C"));
+		g.addEdge(new Town("A"), new Town("B"), 5, "Road 1");
+		g.addEdge(new Town("B"), new Town("C"), 10, "Road 2");
+		GraphSnapshot snapshot = g.snapshot();
+		g.removeEdge(new Town("B"), new Town("C"), 10, "Road 2");
+		g.removeVertex(new Town("A"));
+		assertTrue(snapshot.containsEdge(new Town("B"), new Town("C")));
+		assertTrue(snapshot.containsVertex(new Town("A")));
+		assertEquals(2, snapshot.shortestPath(new Town("A"), new Town("C")).size());
+		assertFalse(g.containsVertex(new Town("A")));
+		assertTrue(g.shortestPath(new Town("B"), new Town("C")).isEmpty());
+	}
+
+	@Test
+	void testAllPairsShortestPaths() {
+		g.addVertex(new Town("A"));
+		g.addVertex(new Town("B"));
+		g.addVertex(new Town("C"));
+		g.addEdge(new Town("A"), new Town("B"), 5, "Road 1");
+		g.addEdge(new Town("B"), new Town("C"), 10, "Road 2");
+		g.addEdge(new Town("A"), new Town("C"), 20, "Road 3");
+		g.buildAllPairsShortestPaths();
+		assertTrue(g.hasAllPairsShortestPaths());
+		ArrayList<String> expected = new ArrayList<>();
+		expected.add("C via Road 2 to B 10 mi");
+		expected.add("B via Road 1 to A 5 mi");
+		assertEquals(expected, g.shortestPath(new Town("C"), new Town("A")));
+		g.removeEdge(new Town("A"), new Town("B"), 5, "Road 1");
+		assertFalse(g.hasAllPairsShortestPaths());
+		assertEquals(1, g.shortestPath(new Town("C"), new Town("A")).size());
+	}
+
+	@Test
+	void testAllPairsFloydWarshallMatchesDijkstra() {
+		Graph g = new Graph();
+		Town[] towns = new RoadNetworkGenerator(RoadNetworkGenerator.Shape.RANDOM_GEOMETRIC, 150, 8).addTo(g);
+		Random random = new Random(8);
+		for (int i = 0; i < 1200; i++) {
+			g.addEdge(towns[random.nextInt(towns.length)], towns[random.nextInt(towns.length)],
+					100 + random.nextInt(400), "Extra " + i);
+		}
+		assertAllPairsMatchDijkstra(g, towns, true);
+	}
+
+	@Test
+	void testAllPairsRepeatedDijkstraMatchesDijkstra() {
+		Graph g = new Graph();
+		Town[] towns = new RoadNetworkGenerator(RoadNetworkGenerator.Shape.GRID, 144, 9).addTo(g);
+		assertAllPairsMatchDijkstra(g, towns, false);
+	}
+
+	/**
+	 * Builds an all-pairs table for the graph, checks it chose the expected
+	 * algorithm, and compares every distance it holds, and every route the graph
+	 * then answers from it, with a Dijkstra search.
+	 */
+	private static void assertAllPairsMatchDijkstra(Graph g, Town[] towns, boolean floydWarshall) {
+		GraphSnapshot snapshot = g.snapshot();
+		int[][] expected = new int[towns.length][towns.length];
+		for (int i = 0; i < towns.length; i++) {
+			for (int j = 0; j < towns.length; j++) {
+				Route route = snapshot.route(towns[i], towns[j]);
+				expected[i][j] = route == null ? -1 : route.getDistance();
+			}
+		}
+		AllPairsShortestPaths table = new AllPairsShortestPaths(snapshot, snapshot.version(),
+				ForkJoinPool.commonPool());
+		assertEquals(floydWarshall, table.usesFloydWarshall());
+		g.buildAllPairsShortestPaths();
+		for (int i = 0; i < towns.length; i++) {
+			for (int j = 0; j < towns.length; j++) {
+				assertEquals(expected[i][j], table.distance(snapshot.id(towns[i]), snapshot.id(towns[j])));
+				Route route = g.route(towns[i], towns[j]);
+				assertEquals(expected[i][j], route == null ? -1 : route.getDistance());
+			}
+		}
+	}
+
+	@Test
+	void testParallelTree() {
+		RoadNetworkGenerator generator = new RoadNetworkGenerator(RoadNetworkGenerator.Shape.SCALE_FREE, 6000, 16);
+		Town[] towns = generator.addTo(g);
+		Graph reference = new Graph();
+		generator.addTo(reference);
+		reference.setTreeCacheCapacity(1);
+		g.setTreeCacheCapacity(1);
+		// A wide bucket puts thousands of towns in one phase, so the relaxation is
+		// split into parallel chunks; a narrow one gives many small buckets.
+		for (int delta : new int[] { 1000000, 10 }) {
+			g.setParallelTreeDelta(delta);
+			for (int s = 0; s < 3; s++) {
+				Town source = towns[s * 1999];
+				for (Town target : towns) {
+					Route expected = reference.route(source, target);
+					Route actual = g.route(source, target);
+					assertEquals(expected == null, actual == null);
+					if (expected != null) {
+						assertEquals(expected.getDistance(), actual.getDistance());
+					}
+				}
+				assertEquals(delta, g.getDeltaSteppingStatistics().getDelta());
+			}
+		}
+	}
+
+	@Test
+	void testSaveAndLoad() throws Exception {
+		Graph g = new Graph();
+		g.addVertex(new Town("A", 39.0, -76.9));
+		g.addVertex(new Town("B"));
+		g.addVertex(new Town("C"));
+		g.addEdge(new Town("A"), new Town("B"), 5, "Road 1");
+		g.addEdge(new Town("B"), new Town("C"), 10, "Road 1");
+		File file = File.createTempFile("graph", ".img");
+		file.deleteOnExit();
+		g.save(file);
+		Graph loaded = new Graph();
+		loaded.load(file);
+		assertEquals(g.vertexSet(), loaded.vertexSet());
+		assertEquals(2, loaded.edgeSet().size());
+		assertEquals(10, loaded.getEdge(new Town("C"), new Town("B")).getWeight());
+		assertEquals(g.shortestPath(new Town("A"), new Town("C")), loaded.shortestPath(new Town("A"), new Town("C")));
+		for (Town town : loaded.vertexSet()) {
+			assertEquals(town.getName().equals("A"), town.hasCoordinates());
+		}
+	}
+
+	@Test
+	void testLoadMovesExistingTowns() throws Exception {
+		Graph saved = new Graph();
+		saved.addVertex(new Town("A", 10, 10));
+		saved.addVertex(new Town("B"));
+		saved.addEdge(new Town("A"), new Town("B"), 5, "Road 1");
+		File file = File.createTempFile("graph", ".img");
+		file.deleteOnExit();
+		saved.save(file);
+		Graph g = new Graph();
+		g.addVertex(new Town("A", 1, 1));
+		g.addVertex(new Town("B", 2, 2));
+		g.load(file);
+		Town a = null;
+		Town b = null;
+		for (Town town : g.vertexSet()) {
+			if (town.getName().equals("A")) {
+				a = town;
+			} else {
+				b = town;
+			}
+		}
+		assertEquals(10.0, a.getLatitude());
+		assertEquals(10.0, a.getLongitude());
+		assertEquals(2.0, b.getLatitude());
+		assertEquals(2.0, b.getLongitude());
+		assertEquals(1, g.edgeSet().size());
+	}
+
+	@Test
+	void testLoadRejectsNegativeWeight() throws Exception {
+		Graph saved = new Graph();
+		saved.addVertex(new Town("A"));
+		saved.addVertex(new Town("B"));
+		saved.addEdge(new Town("A"), new Town("B"), 5, "Road 1");
+		File file = File.createTempFile("graph", ".img");
+		file.deleteOnExit();
+		saved.save(file);
+		try (RandomAccessFile image = new RandomAccessFile(file, "rw")) {
+			image.seek(8);
+			int strings = image.readInt();
+			int towns = image.readInt();
+			int roads = image.readInt();
+			image.seek(24 + 4L * strings + 20L * towns + 8L * roads);
+			image.writeInt(-5);
+		}
+		Graph g = new Graph();
+		assertThrows(IOException.class, () -> g.load(file));
+		assertTrue(g.vertexSet().isEmpty());
+	}
+
+	@Test
+	void testRoadNetworkGenerator() {
+		RoadNetworkGenerator generator = new RoadNetworkGenerator(RoadNetworkGenerator.Shape.HIGHWAY, 400, 3);
+		Graph g = new Graph();
+		Town[] towns = generator.addTo(g);
+		assertEquals(400, g.vertexSet().size());
+		assertEquals(generator.getRoadCount(), g.edgeSet().size());
+		Graph again = new Graph();
+		new RoadNetworkGenerator(RoadNetworkGenerator.Shape.HIGHWAY, 400, 3).addTo(again);
+		assertEquals(g.shortestPath(towns[0], towns[399]), again.shortestPath(towns[0], towns[399]));
+		assertTrue(towns[399].hasCoordinates());
+	}
+
+	@Test
+	void testSetCoordinatesKeepsAStarExact() {
+		Town p = new Town("P", 0, 0);
+		Town q = new Town("Q", 0, 1);
+		Town r = new Town("R", 0, 2);
+		g.addVertex(p);
+		g.addVertex(q);
+		g.addVertex(r);
+		g.addEdge(p, q, 70, "pq");
+		g.addEdge(q, r, 70, "qr");
+		g.addEdge(p, r, 200, "pr");
+		g.setSearchStrategy(SearchStrategy.A_STAR);
+		assertEquals(2, g.shortestPath(p, r).size());
+		Town moved = g.setCoordinates(q, 0, 10);
+		assertEquals(10.0, moved.getLongitude());
+		assertEquals(1.0, q.getLongitude());
+		ArrayList<String> expected = new ArrayList<>();
+		expected.add("P via pq to Q 70 mi");
+		expected.add("Q via qr to R 70 mi");
+		assertEquals(expected, g.shortestPath(p, r));
+	}
+
+	@Test
+	void testSnapshotKeepsLocations() {
+		Town p = new Town("P", 0, 0);
+		Town q = new Town("Q", 0, 1);
+		Town r = new Town("R", 0, 2);
+		g.addVertex(p);
+		g.addVertex(q);
+		g.addVertex(r);
+		g.addEdge(p, q, 70, "pq");
+		g.addEdge(q, r, 70, "qr");
+		g.addEdge(p, r, 200, "pr");
+		g.setSearchStrategy(SearchStrategy.A_STAR);
+		GraphSnapshot before = g.snapshot();
+		g.setCoordinates(q, 0, 10);
+		ArrayList<String> expected = new ArrayList<>();
+		expected.add("P via pq to Q 70 mi");
+		expected.add("Q via qr to R 70 mi");
+		assertEquals(expected, before.shortestPath(p, r));
+		assertEquals(expected, g.shortestPath(p, r));
+		for (Town town : before.vertexSet()) {
+			assertTrue(town.getLongitude() <= 2);
+		}
+	}
+
+	@Test
+	void testSnapshotSurvivesChurn() {
+		Town a = new Town("A");
+		Town b = new Town("B");
+		g.addVertex(a);
+		g.addVertex(b);
+		g.addEdge(a, b, 3, "first");
+		GraphSnapshot before = g.snapshot();
+		for (int i = 0; i < 1000; i++) {
+			g.removeVertex(b);
+			g.addVertex(b);
+			g.addEdge(a, b, 4, "road " + i);
+		}
+		assertEquals("first", before.getEdge(a, b).getName());
+		assertEquals("road 999", g.getEdge(a, b).getName());
+		assertEquals(1, g.edgeSet().size());
+		g.removeVertex(b);
+		assertFalse(g.containsEdge(a, b));
+		assertTrue(before.containsEdge(a, b));
+	}
+
+	@Test
+	void testMetrics() {
+		g.addVertex(new Town("A"));
+		g.addVertex(new Town("B"));
+		g.addVertex(new Town("C"));
+		g.addEdge(new Town("A"), new Town("B"), 5, "Road 1");
+		assertEquals(null, g.getMetrics());
+		g.setMetricsEnabled(true);
+		g.addEdge(new Town("B"), new Town("C"), 10, "Road 2");
+		g.shortestPath(new Town("A"), new Town("C"));
+		g.shortestPath(new Town("C"), new Town("A"));
+		GraphMetrics metrics = g.getMetrics();
+		assertEquals(1, metrics.getMutations());
+		assertEquals(2, metrics.getQueries());
+		assertTrue(metrics.getVerticesSettled() >= 6);
+		assertTrue(metrics.getEdgesRelaxed() >= 4);
+		assertTrue(metrics.getLatencyPercentileNanos(50) <= metrics.getLatencyPercentileNanos(99));
+		g.resetMetrics();
+		assertEquals(0, g.getMetrics().getQueries());
+		g.setMetricsEnabled(false);
+		assertFalse(g.isMetricsEnabled());
+	}
+
+
+	/**
+	 * Compares the lengths of routes between random pairs of towns with those a
+	 * plain Dijkstra search finds on a second copy of the same network.
+	 */
+	private static void assertRoutesMatchDijkstra(Graph g, Town[] towns, RoadNetworkGenerator generator, int pairs) {
+		Graph reference = new Graph();
+		generator.addTo(reference);
+		Random random = new Random(towns.length);
+		for (int i = 0; i < pairs; i++) {
+			Town source = towns[random.nextInt(towns.length)];
+			Town target = towns[random.nextInt(towns.length)];
+			Route expected = reference.route(source, target);
+			Route actual = g.route(source, target);
+			assertEquals(expected == null, actual == null);
+			if (expected != null) {
+				assertEquals(expected.getDistance(), actual.getDistance());
+				assertEquals(source, actual.getSource());
+				assertEquals(target, actual.getDestination());
+			}
+		}
+	}
+
 }
@@ -0,0 +1,208 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Min-priority queue of vertex ids with primitive int keys, stored as an
+ * implicit d-ary heap. An index from id to heap slot allows the key of a queued
+ * id to be lowered in place, so a search never holds stale duplicates and never
+ * boxes or compares through a Comparator. The heap counts its inserts, key
+ * decreases and removals, which searches report as work done.
+ */
+class IndexedDaryHeap {
+	private static final int DEFAULT_ARITY = 4;
+
+	private final int arity;
+	private final int[] heap;
+	private final int[] position;
+	private final int[] keys;
+	private int size;
+	private long pushes;
+	private long decreases;
+	private long pops;
+
+	/**
+	 * Creates a 4-ary heap for ids from 0 to capacity - 1.
+	 *
+	 * @param capacity one more than the largest id that will be queued
+	 */
+	IndexedDaryHeap(int capacity) {
+		this(capacity, DEFAULT_ARITY);
+	}
+
+	/**
+	 * @param capacity one more than the largest id that will be queued
+	 * @param arity    number of children per heap node, at least 2
+	 */
+	IndexedDaryHeap(int capacity, int arity) {
+		if (arity < 2) {
+			throw new IllegalArgumentException("Arity must be at least 2.");
+		}
+		this.arity = arity;
+		heap = new int[capacity];
+		position = new int[capacity];
+		keys = new int[capacity];
+		Arrays.fill(position, -1);
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean contains(int id) {
+		return position[id] != -1;
+	}
+
+	/**
+	 * Queues an id, or lowers its key if it is already queued with a larger one.
+	 *
+	 * @param id  the id
+	 * @param key its priority
+	 * @return true if the id was inserted or its key lowered
+	 */
+	boolean offer(int id, int key) {
+		int slot = position[id];
+		if (slot == -1) {
+			slot = size++;
+			heap[slot] = id;
+			position[id] = slot;
+			pushes++;
+		} else if (key >= keys[id]) {
+			return false;
+		} else {
+			decreases++;
+		}
+		keys[id] = key;
+		siftUp(slot);
+		return true;
+	}
+
+	/**
+	 * @return the id with the smallest key
+	 * @throws NoSuchElementException if the heap is empty
+	 */
+	int peek() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return heap[0];
+	}
+
+	/**
+	 * @return the smallest key in the heap
+	 * @throws NoSuchElementException if the heap is empty
+	 */
+	int peekKey() {
+		return keys[peek()];
+	}
+
+	/**
+	 * Removes the id with the smallest key.
+	 *
+	 * @return the removed id
+	 * @throws NoSuchElementException if the heap is empty
+	 */
+	int poll() {
+		int min = peek();
+		position[min] = -1;
+		size--;
+		pops++;
+		if (size > 0) {
+			int last = heap[size];
+			heap[0] = last;
+			position[last] = 0;
+			siftDown(0);
+		}
+		return min;
+	}
+
+	/**
+	 * Empties the heap in time proportional to its size, so one heap can be
+	 * reused across searches.
+	 */
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			position[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	/**
+	 * @return the number of ids inserted since the counts were last reset
+	 */
+	long pushes() {
+		return pushes;
+	}
+
+	/**
+	 * @return the number of keys lowered in place since the counts were last
+	 *         reset
+	 */
+	long decreases() {
+		return decreases;
+	}
+
+	/**
+	 * @return the number of ids removed by poll since the counts were last reset
+	 */
+	long pops() {
+		return pops;
+	}
+
+	/**
+	 * Sets the operation counts back to zero, so a heap reused across searches
+	 * can report each search on its own. Clearing the heap leaves them as they
+	 * are.
+	 */
+	void resetCounts() {
+		pushes = 0;
+		decreases = 0;
+		pops = 0;
+	}
+
+	private void siftUp(int slot) {
+		int id = heap[slot];
+		int key = keys[id];
+		while (slot > 0) {
+			int parent = (slot - 1) / arity;
+			int parentId = heap[parent];
+			if (keys[parentId] <= key) {
+				break;
+			}
+			heap[slot] = parentId;
+			position[parentId] = slot;
+			slot = parent;
+		}
+		heap[slot] = id;
+		position[id] = slot;
+	}
+
+	private void siftDown(int slot) {
+		int id = heap[slot];
+		int key = keys[id];
+		while (true) {
+			int first = slot * arity + 1;
+			if (first >= size) {
+				break;
+			}
+			int last = Math.min(first + arity, size);
+			int best = first;
+			for (int child = first + 1; child < last; child++) {
+				if (keys[heap[child]] < keys[heap[best]]) {
+					best = child;
+				}
+			}
+			if (keys[heap[best]] >= key) {
+				break;
+			}
+			heap[slot] = heap[best];
+			position[heap[slot]] = slot;
+			slot = best;
+		}
+		heap[slot] = id;
+		position[id] = slot;
+	}
+}
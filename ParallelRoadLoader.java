@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses a road file on several threads. The file is split into chunks that
+ * each start just after a line break, about four per worker so a slow chunk
+ * does not hold up the rest, and every chunk is parsed by its own task into a
+ * {@link RoadBuffer}. The buffers come back in file order, so a caller merging
+ * them one after another sees the roads in the same order as a sequential
+ * read.
+ */
+class ParallelRoadLoader {
+	private static final long MIN_CHUNK = 1 << 20;
+	private static final long MAX_CHUNK = 64 << 20;
+	private static final int CHUNKS_PER_WORKER = 4;
+
+	private ParallelRoadLoader() {
+	}
+
+	/**
+	 * Reads every road of a file. If a chunk fails, the buffers after it are
+	 * dropped and the failing buffer holds the roads before the failure and the
+	 * exception, with a malformed line renumbered from the start of the file.
+	 * The roads read are then exactly those a sequential read handles before
+	 * failing.
+	 *
+	 * @param file the file to read
+	 * @param pool the pool to parse on
+	 * @return one buffer per chunk, in file order
+	 * @throws IOException if the file cannot be opened
+	 */
+	static List<RoadBuffer> read(Path file, ForkJoinPool pool) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long chunk = size / ((long) pool.getParallelism() * CHUNKS_PER_WORKER);
+			chunk = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, chunk));
+			List<RoadBuffer> buffers = new ArrayList<>();
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			long start = 0;
+			while (start < size) {
+				long end = start + chunk >= size ? size : lineStart(channel, start + chunk, size);
+				RoadBuffer buffer = new RoadBuffer();
+				long from = start;
+				buffers.add(buffer);
+				tasks.add(pool.submit(() -> {
+					try {
+						buffer.lines = RoadFileReader.read(channel, from, end, buffer);
+					} catch (IOException e) {
+						buffer.failure = e;
+					}
+				}));
+				start = end;
+			}
+
+			long lines = 0;
+			for (int i = 0; i < tasks.size(); i++) {
+				tasks.get(i).join();
+				RoadBuffer buffer = buffers.get(i);
+				if (buffer.failure != null) {
+					if (buffer.failure instanceof RoadFileReader.MalformedRoadException) {
+						RoadFileReader.MalformedRoadException e = (RoadFileReader.MalformedRoadException) buffer.failure;
+						buffer.failure = new RoadFileReader.MalformedRoadException(lines + e.line, e.text, e.getCause());
+					}
+					// The later chunks must finish before the channel is closed.
+					for (int j = i + 1; j < tasks.size(); j++) {
+						tasks.get(j).join();
+					}
+					return new ArrayList<>(buffers.subList(0, i + 1));
+				}
+				lines += buffer.lines;
+			}
+			return buffers;
+		}
+	}
+
+	/**
+	 * @return the offset just after the first line break at or after position -
+	 *         1, or the size of the file if there is none
+	 */
+	private static long lineStart(FileChannel channel, long position, long size) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(4096);
+		long offset = position - 1;
+		while (offset < size) {
+			bytes.clear();
+			int read = channel.read(bytes, offset);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (bytes.get(i) == '\n') {
+					return offset + i + 1;
+				}
+			}
+			offset += read;
+		}
+		return size;
+	}
+}
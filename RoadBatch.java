@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+/**
+ * Roads to be added to a {@link TownGraphManager} all at once with
+ * {@link TownGraphManager#addRoads(RoadBatch)}. The roads are kept in parallel
+ * arrays in the order they were added, so a batch of millions of roads costs
+ * four arrays rather than millions of objects.
+ */
+public class RoadBatch {
+	private String[] sources;
+	private String[] destinations;
+	private int[] weights;
+	private String[] names;
+	private int size;
+
+	/**
+	 * Creates an empty batch.
+	 */
+	public RoadBatch() {
+		this(16);
+	}
+
+	/**
+	 * Creates an empty batch with room for a number of roads, so filling it up to
+	 * that many never copies its arrays.
+	 * 
+	 * @param expectedRoads the number of roads expected
+	 */
+	public RoadBatch(int expectedRoads) {
+		if (expectedRoads < 0) {
+			throw new IllegalArgumentException("Expected roads cannot be negative.");
+		}
+		sources = new String[expectedRoads];
+		destinations = new String[expectedRoads];
+		weights = new int[expectedRoads];
+		names = new String[expectedRoads];
+	}
+
+	/**
+	 * Adds a road to the batch. The towns are created as the batch is added if
+	 * they do not exist yet.
+	 * 
+	 * @param source      name of the town the road starts at
+	 * @param destination name of the town the road ends at
+	 * @param weight      length of the road
+	 * @param name        name of the road
+	 * @return this batch
+	 */
+	public RoadBatch add(String source, String destination, int weight, String name) {
+		if (size == sources.length) {
+			int capacity = Math.max(16, size * 2);
+			sources = Arrays.copyOf(sources, capacity);
+			destinations = Arrays.copyOf(destinations, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+			names = Arrays.copyOf(names, capacity);
+		}
+		sources[size] = source;
+		destinations[size] = destination;
+		weights[size] = weight;
+		names[size] = name;
+		size++;
+		return this;
+	}
+
+	/**
+	 * @return the number of roads in the batch
+	 */
+	public int size() {
+		return size;
+	}
+
+	String source(int i) {
+		return sources[i];
+	}
+
+	String destination(int i) {
+		return destinations[i];
+	}
+
+	int weight(int i) {
+		return weights[i];
+	}
+
+	String name(int i) {
+		return names[i];
+	}
+}
@@ -0,0 +1,55 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Growable parallel arrays of parsed roads, filled by one loader thread. Town
+ * locations are kept only for the roads that have them, with NaN elsewhere.
+ */
+class RoadBuffer implements RoadFileReader.Handler {
+	String[] names = new String[64];
+	int[] weights = new int[64];
+	String[] sources = new String[64];
+	String[] destinations = new String[64];
+	double[] coordinates;
+	int size;
+	long lines;
+	IOException failure;
+
+	@Override
+	public void road(RoadFileReader.RoadRecord road) {
+		if (size == names.length) {
+			int capacity = size * 2;
+			names = Arrays.copyOf(names, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+			sources = Arrays.copyOf(sources, capacity);
+			destinations = Arrays.copyOf(destinations, capacity);
+			if (coordinates != null) {
+				coordinates = Arrays.copyOf(coordinates, capacity * 4);
+				Arrays.fill(coordinates, size * 4, capacity * 4, Double.NaN);
+			}
+		}
+		names[size] = road.name;
+		weights[size] = road.weight;
+		sources[size] = road.source;
+		destinations[size] = road.destination;
+		if (road.located) {
+			if (coordinates == null) {
+				coordinates = new double[names.length * 4];
+				Arrays.fill(coordinates, Double.NaN);
+			}
+			coordinates[size * 4] = road.sourceLatitude;
+			coordinates[size * 4 + 1] = road.sourceLongitude;
+			coordinates[size * 4 + 2] = road.destinationLatitude;
+			coordinates[size * 4 + 3] = road.destinationLongitude;
+		}
+		size++;
+	}
+
+	/**
+	 * @param i index of a road
+	 * @return true if the road's line gave the locations of both its towns
+	 */
+	boolean located(int i) {
+		return coordinates != null && !Double.isNaN(coordinates[i * 4]);
+	}
+}
@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for road files, one road per line in the format
+ * roadName,weight;sourceTown;destinationTown, optionally followed by
+ * ;lat,lon;lat,lon for the two towns. The file is memory-mapped one window at a
+ * time and each line is parsed as soon as it is reached, so reading needs only
+ * a window of address space and a line buffer however large the file is. Blank
+ * lines are skipped; names are read as UTF-8.
+ */
+class RoadFileReader {
+	private static final int WINDOW = 64 << 20;
+
+	/**
+	 * Receives the roads of a file in order.
+	 */
+	interface Handler {
+		/**
+		 * @param road the road just read; the same object is reused for every
+		 *             line, so its fields must be copied out if they are kept
+		 */
+		void road(RoadRecord road);
+	}
+
+	/**
+	 * One parsed line of a road file.
+	 */
+	static class RoadRecord {
+		String name;
+		int weight;
+		String source;
+		String destination;
+		boolean located;
+		double sourceLatitude;
+		double sourceLongitude;
+		double destinationLatitude;
+		double destinationLongitude;
+	}
+
+	/**
+	 * A line that does not hold a road. Carries the line's number within the
+	 * region that was read, so a caller that read the region as part of a larger
+	 * file can renumber it.
+	 */
+	static class MalformedRoadException extends IOException {
+		private static final long serialVersionUID = 1L;
+		final long line;
+		final String text;
+
+		MalformedRoadException(long line, String text, Throwable cause) {
+			super("Malformed road on line " + line + ": " + text, cause);
+			this.line = line;
+			this.text = text;
+		}
+	}
+
+	private final RoadRecord record = new RoadRecord();
+	private final int[] separators = new int[5];
+	private byte[] line = new byte[256];
+	private int length;
+	private long lineNumber;
+
+	private RoadFileReader() {
+	}
+
+	/**
+	 * Reads every road of a file.
+	 *
+	 * @param file    the file to read
+	 * @param handler receives each road as it is parsed
+	 * @throws IOException if the file cannot be read or a line is malformed, in
+	 *                     which case the roads before it have been handled
+	 */
+	static void read(Path file, Handler handler) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			read(channel, 0, channel.size(), handler);
+		}
+	}
+
+	/**
+	 * Reads the roads of a region of a file that starts at the beginning of a
+	 * line. Different regions of one channel can be read by different threads at
+	 * once.
+	 *
+	 * @param channel the file
+	 * @param start   offset of the first byte of the region
+	 * @param end     offset just past the region, at the end of a line or the file
+	 * @param handler receives each road as it is parsed
+	 * @return the number of lines in the region
+	 * @throws MalformedRoadException if a line is malformed, numbered from 1 at
+	 *                                the start of the region
+	 * @throws IOException            if the file cannot be read
+	 */
+	static long read(FileChannel channel, long start, long end, Handler handler) throws IOException {
+		return new RoadFileReader().readRegion(channel, start, end, handler);
+	}
+
+	private long readRegion(FileChannel channel, long start, long end, Handler handler) throws IOException {
+		for (long position = start; position < end; position += WINDOW) {
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+					Math.min(WINDOW, end - position));
+			while (window.hasRemaining()) {
+				byte b = window.get();
+				if (b == '\n') {
+					endLine(handler);
+				} else {
+					if (length == line.length) {
+						line = Arrays.copyOf(line, length * 2);
+					}
+					line[length++] = b;
+				}
+			}
+		}
+		if (length > 0) {
+			endLine(handler);
+		}
+		return lineNumber;
+	}
+
+	/**
+	 * Parses the buffered line, if it holds anything, and empties the buffer. A
+	 * line may span two windows, which is why it is buffered.
+	 */
+	private void endLine(Handler handler) throws IOException {
+		lineNumber++;
+		if (length > 0 && line[length - 1] == '\r') {
+			length--;
+		}
+		if (length > 0) {
+			parse();
+			handler.road(record);
+		}
+		length = 0;
+	}
+
+	private void parse() throws IOException {
+		int fields = 1;
+		for (int i = 0; i < length && fields <= separators.length; i++) {
+			if (line[i] == ';') {
+				separators[fields - 1] = i;
+				fields++;
+			}
+		}
+		if (fields < 3) {
+			throw malformed(null);
+		}
+		int comma = indexOf(',', 0, separators[0]);
+		if (comma == -1) {
+			throw malformed(null);
+		}
+		try {
+			record.name = text(0, comma);
+			record.weight = Integer.parseInt(text(comma + 1, separators[0]));
+			record.source = text(separators[0] + 1, separators[1]);
+			record.destination = text(separators[1] + 1, fields > 3 ? separators[2] : length);
+			record.located = fields >= 5;
+			if (record.located) {
+				int end = fields > 5 ? separators[4] : length;
+				int first = indexOf(',', separators[2] + 1, separators[3]);
+				int second = indexOf(',', separators[3] + 1, end);
+				if (first == -1 || second == -1) {
+					throw malformed(null);
+				}
+				record.sourceLatitude = Double.parseDouble(text(separators[2] + 1, first).trim());
+				record.sourceLongitude = Double.parseDouble(text(first + 1, separators[3]).trim());
+				record.destinationLatitude = Double.parseDouble(text(separators[3] + 1, second).trim());
+				record.destinationLongitude = Double.parseDouble(text(second + 1, end).trim());
+			}
+		} catch (NumberFormatException e) {
+			throw malformed(e);
+		}
+	}
+
+	private int indexOf(char c, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (line[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private String text(int from, int to) {
+		return new String(line, from, to - from, StandardCharsets.UTF_8);
+	}
+
+	private MalformedRoadException malformed(Throwable cause) {
+		return new MalformedRoadException(lineNumber, text(0, length), cause);
+	}
+}
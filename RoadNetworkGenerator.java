@@ -0,0 +1,326 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates synthetic road networks for benchmarks and scale tests. The same
+ * shape, size and seed always give the same network, so results can be
+ * reproduced and compared across runs and machines.
+ *
+ * Towns are spread over a square about one mile on a side per town, so the
+ * density stays the same whatever the size. Each town has a location and each
+ * road weighs at least the straight-line distance between its towns in miles,
+ * so A* has a useful heuristic. Towns are named Town_0 to Town_(n - 1) and roads
+ * Road_0 onwards. Generation takes time and memory linear in the size of the
+ * network, so networks of millions of towns can be built.
+ */
+public class RoadNetworkGenerator {
+	private static final double BASE_LATITUDE = 35.0;
+	private static final double BASE_LONGITUDE = -100.0;
+	private static final double MILES_PER_DEGREE = 69.0;
+	private static final int SCALE_FREE_EDGES = 2;
+	private static final double GEOMETRIC_DEGREE = 6;
+	private static final int HIGHWAY_SPACING = 16;
+	private static final double LOCAL_SLOWDOWN = 3;
+
+	/**
+	 * Kinds of network.
+	 */
+	public enum Shape {
+		/**
+		 * A square grid: every town is joined to the towns beside it, by roads of
+		 * random length.
+		 */
+		GRID,
+		/**
+		 * Towns at random places, each joined to every town within a radius chosen
+		 * to give six roads per town on average. Sparse areas may be cut off.
+		 */
+		RANDOM_GEOMETRIC,
+		/**
+		 * Preferential attachment: each new town is joined to two towns chosen with
+		 * probability proportional to their number of roads, which gives a few
+		 * hubs with very many roads, as in airline networks.
+		 */
+		SCALE_FREE,
+		/**
+		 * A slightly irregular grid of slow local roads with a coarser grid of
+		 * fast highways between every 16th town in each direction, so long routes
+		 * leave the local roads for the highways as on real road maps.
+		 */
+		HIGHWAY
+	}
+
+	private final Shape shape;
+	private final int towns;
+	private final long seed;
+	private double[] x;
+	private double[] y;
+	private int[] sources;
+	private int[] destinations;
+	private int[] weights;
+	private int roads;
+
+	/**
+	 * @param shape the kind of network
+	 * @param towns the number of towns, at least 1
+	 * @param seed  seed of the random numbers that shape the network
+	 */
+	public RoadNetworkGenerator(Shape shape, int towns, long seed) {
+		if (shape == null) {
+			throw new NullPointerException("Shape cannot be null.");
+		}
+		if (towns < 1) {
+			throw new IllegalArgumentException("A network needs at least one town.");
+		}
+		this.shape = shape;
+		this.towns = towns;
+		this.seed = seed;
+	}
+
+	/**
+	 * @return the number of roads in the network
+	 */
+	public int getRoadCount() {
+		generate();
+		return roads;
+	}
+
+	/**
+	 * Adds the network to a graph as one modification.
+	 *
+	 * @param graph the graph to add to
+	 * @return the towns of the network, Town_i at index i
+	 */
+	public Town[] addTo(Graph graph) {
+		generate();
+		Town[] list = new Town[towns];
+		for (int i = 0; i < towns; i++) {
+			list[i] = new Town("Town_" + i, latitude(i), longitude(i));
+		}
+		String[] names = new String[roads];
+		for (int i = 0; i < roads; i++) {
+			names[i] = "Road_" + i;
+		}
+		graph.addAll(Arrays.asList(list), sources, destinations, weights, names, roads);
+		return list;
+	}
+
+	/**
+	 * Writes the network as a road file that
+	 * {@link TownGraphManager#populateTownGraph(File)} reads, one road per line
+	 * with the locations of both towns.
+	 *
+	 * @param file the file to write, replaced if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(File file) throws IOException {
+		generate();
+		try (Writer out = new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8),
+				1 << 16)) {
+			StringBuilder line = new StringBuilder();
+			for (int i = 0; i < roads; i++) {
+				int s = sources[i];
+				int d = destinations[i];
+				line.setLength(0);
+				line.append("Road_").append(i).append(',').append(weights[i]);
+				line.append(";Town_").append(s).append(";Town_").append(d);
+				line.append(';').append(latitude(s)).append(',').append(longitude(s));
+				line.append(';').append(latitude(d)).append(',').append(longitude(d)).append('\n');
+				out.append(line);
+			}
+		}
+	}
+
+	private void generate() {
+		if (x != null) {
+			return;
+		}
+		Random random = new Random(seed);
+		x = new double[towns];
+		y = new double[towns];
+		sources = new int[16];
+		destinations = new int[16];
+		weights = new int[16];
+		switch (shape) {
+		case GRID:
+			grid(random, 0, 1);
+			break;
+		case RANDOM_GEOMETRIC:
+			randomGeometric(random);
+			break;
+		case SCALE_FREE:
+			scaleFree(random);
+			break;
+		case HIGHWAY:
+			grid(random, 0.3, LOCAL_SLOWDOWN);
+			highways();
+			break;
+		}
+	}
+
+	/**
+	 * Lays the towns out in rows one mile apart and joins each to the next town
+	 * in its row and column.
+	 *
+	 * @param jitter   how far, in miles, a town may be moved from its place in
+	 *                 the grid
+	 * @param slowdown how many times longer than the distance a road weighs at
+	 *                 least
+	 */
+	private void grid(Random random, double jitter, double slowdown) {
+		int side = side();
+		for (int i = 0; i < towns; i++) {
+			x[i] = i % side + (random.nextDouble() - 0.5) * jitter;
+			y[i] = i / side + (random.nextDouble() - 0.5) * jitter;
+		}
+		for (int i = 0; i < towns; i++) {
+			if ((i + 1) % side != 0 && i + 1 < towns) {
+				road(i, i + 1, slowdown * (1 + random.nextDouble()));
+			}
+			if (i + side < towns) {
+				road(i, i + side, slowdown * (1 + random.nextDouble()));
+			}
+		}
+	}
+
+	/**
+	 * Joins every pair of towns closer than the radius, finding the pairs
+	 * through a grid of cells one radius wide.
+	 */
+	private void randomGeometric(Random random) {
+		int side = side();
+		for (int i = 0; i < towns; i++) {
+			x[i] = random.nextDouble() * side;
+			y[i] = random.nextDouble() * side;
+		}
+		double radius = Math.sqrt(GEOMETRIC_DEGREE / Math.PI);
+		int cells = Math.max(1, (int) (side / radius));
+		double cellSize = (double) side / cells;
+		int[] first = new int[cells * cells + 1];
+		int[] cellOf = new int[towns];
+		for (int i = 0; i < towns; i++) {
+			int cx = Math.min(cells - 1, (int) (x[i] / cellSize));
+			int cy = Math.min(cells - 1, (int) (y[i] / cellSize));
+			cellOf[i] = cy * cells + cx;
+			first[cellOf[i] + 1]++;
+		}
+		for (int c = 0; c < cells * cells; c++) {
+			first[c + 1] += first[c];
+		}
+		int[] members = new int[towns];
+		int[] fill = Arrays.copyOf(first, first.length);
+		for (int i = 0; i < towns; i++) {
+			members[fill[cellOf[i]]++] = i;
+		}
+		for (int i = 0; i < towns; i++) {
+			int cx = cellOf[i] % cells;
+			int cy = cellOf[i] / cells;
+			for (int ny = Math.max(0, cy - 1); ny <= Math.min(cells - 1, cy + 1); ny++) {
+				for (int nx = Math.max(0, cx - 1); nx <= Math.min(cells - 1, cx + 1); nx++) {
+					int cell = ny * cells + nx;
+					for (int k = first[cell]; k < first[cell + 1]; k++) {
+						int j = members[k];
+						if (j > i && distance(i, j) <= radius) {
+							road(i, j, 1 + random.nextDouble());
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Barabasi-Albert preferential attachment. Every road end is kept in one
+	 * array, so picking a random entry picks a town with probability
+	 * proportional to its number of roads.
+	 */
+	private void scaleFree(Random random) {
+		int side = side();
+		for (int i = 0; i < towns; i++) {
+			x[i] = random.nextDouble() * side;
+			y[i] = random.nextDouble() * side;
+		}
+		int[] ends = new int[2 * SCALE_FREE_EDGES * towns];
+		int endCount = 0;
+		int[] chosen = new int[SCALE_FREE_EDGES];
+		for (int i = 1; i < towns; i++) {
+			int edges = Math.min(i, SCALE_FREE_EDGES);
+			for (int e = 0; e < edges; e++) {
+				int target;
+				boolean repeated;
+				do {
+					target = endCount == 0 ? random.nextInt(i) : ends[random.nextInt(endCount)];
+					repeated = false;
+					for (int k = 0; k < e; k++) {
+						repeated |= chosen[k] == target;
+					}
+				} while (repeated);
+				chosen[e] = target;
+			}
+			for (int e = 0; e < edges; e++) {
+				road(i, chosen[e], 1 + random.nextDouble());
+				ends[endCount++] = i;
+				ends[endCount++] = chosen[e];
+			}
+		}
+	}
+
+	/**
+	 * Joins every HIGHWAY_SPACING-th town of the grid, in both directions, to the
+	 * next such town by a highway that weighs the straight-line distance.
+	 */
+	private void highways() {
+		int side = side();
+		for (int i = 0; i < towns; i++) {
+			int row = i / side;
+			int column = i % side;
+			if (row % HIGHWAY_SPACING != 0 || column % HIGHWAY_SPACING != 0) {
+				continue;
+			}
+			if (column + HIGHWAY_SPACING < side && i + HIGHWAY_SPACING < towns) {
+				road(i, i + HIGHWAY_SPACING, 1);
+			}
+			if (i + HIGHWAY_SPACING * side < towns) {
+				road(i, i + HIGHWAY_SPACING * side, 1);
+			}
+		}
+	}
+
+	/**
+	 * Adds a road that weighs a multiple of the distance between its towns,
+	 * rounded up to whole miles and at least 1.
+	 */
+	private void road(int source, int destination, double factor) {
+		if (roads == sources.length) {
+			sources = Arrays.copyOf(sources, roads * 2);
+			destinations = Arrays.copyOf(destinations, roads * 2);
+			weights = Arrays.copyOf(weights, roads * 2);
+		}
+		sources[roads] = source;
+		destinations[roads] = destination;
+		weights[roads] = Math.max(1, (int) Math.ceil(distance(source, destination) * factor));
+		roads++;
+	}
+
+	private double distance(int a, int b) {
+		return Math.hypot(x[a] - x[b], y[a] - y[b]);
+	}
+
+	private int side() {
+		return (int) Math.ceil(Math.sqrt(towns));
+	}
+
+	private double latitude(int town) {
+		return BASE_LATITUDE + y[town] / MILES_PER_DEGREE;
+	}
+
+	private double longitude(int town) {
+		return BASE_LONGITUDE + x[town] / (MILES_PER_DEGREE * Math.cos(Math.toRadians(BASE_LATITUDE)));
+	}
+}
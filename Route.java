@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A path through the graph as returned by {@link Graph#route(Town, Town)}: the
+ * towns it passes in order, the roads between them, and its total length.
+ * Nothing is formatted until {@link #getDirections()} is called, so a route of
+ * thousands of roads costs no more than two arrays until it is shown.
+ */
+public class Route {
+	private final Town[] towns;
+	private final Road[] roads;
+	private final int distance;
+
+	/**
+	 * @param towns the towns of the path, starting with the source
+	 * @param roads the roads of the path, roads[i] joining towns[i] and
+	 *              towns[i + 1]
+	 */
+	Route(Town[] towns, Road[] roads) {
+		this.towns = towns;
+		this.roads = roads;
+		int distance = 0;
+		for (Road road : roads) {
+			distance += road.getWeight();
+		}
+		this.distance = distance;
+	}
+
+	/**
+	 * @return the towns of the route in order, from source to destination
+	 */
+	public List<Town> getTowns() {
+		return Collections.unmodifiableList(Arrays.asList(towns));
+	}
+
+	/**
+	 * @return the roads of the route in order, one fewer than the towns
+	 */
+	public List<Road> getRoads() {
+		return Collections.unmodifiableList(Arrays.asList(roads));
+	}
+
+	public Town getSource() {
+		return towns[0];
+	}
+
+	public Town getDestination() {
+		return towns[towns.length - 1];
+	}
+
+	/**
+	 * @return the sum of the weights of the roads
+	 */
+	public int getDistance() {
+		return distance;
+	}
+
+	/**
+	 * @return the number of roads, 0 if the route starts and ends at one town
+	 */
+	public int getHopCount() {
+		return roads.length;
+	}
+
+	/**
+	 * Formats one road of the route as "from via road to destination weight mi".
+	 *
+	 * @param hop index of the road, from 0 to getHopCount() - 1
+	 * @return the description of the road
+	 */
+	public String getDirection(int hop) {
+		Road road = roads[hop];
+		return towns[hop].getName() + " via " + road.getName() + " to " + towns[hop + 1].getName() + " "
+				+ road.getWeight() + " mi";
+	}
+
+	/**
+	 * @return one description per road, in the format of
+	 *         {@link Graph#shortestPath(Town, Town)}, in a new list
+	 */
+	public ArrayList<String> getDirections() {
+		ArrayList<String> directions = new ArrayList<>(roads.length);
+		for (int i = 0; i < roads.length; i++) {
+			directions.add(getDirection(i));
+		}
+		return directions;
+	}
+
+	@Override
+	public String toString() {
+		return getSource().getName() + " to " + getDestination().getName() + ", " + distance + " mi over "
+				+ roads.length + " roads";
+	}
+}
@@ -0,0 +1,99 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded least-recently-used cache of paths keyed by the names of their two
+ * end towns, with hit and miss counters. Paths are stored as unmodifiable
+ * copies and handed out as fresh copies, so callers can never change what is
+ * cached. Every clear starts a new generation, and a path computed before the
+ * latest clear is not stored, so a query racing a change of the graph cannot
+ * cache a path from the old graph.
+ */
+class RouteCache {
+	private final int capacity;
+	private final LinkedHashMap<List<String>, List<String>> routes;
+	private long hits;
+	private long misses;
+	private long generation;
+
+	/**
+	 * @param capacity the largest number of paths to keep
+	 */
+	RouteCache(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1.");
+		}
+		this.capacity = capacity;
+		this.routes = new LinkedHashMap<List<String>, List<String>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<String>, List<String>> eldest) {
+				return size() > RouteCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * @param town1 name of the first town
+	 * @param town2 name of the second town
+	 * @return a copy of the cached path, or null if it is not cached
+	 */
+	synchronized ArrayList<String> get(String town1, String town2) {
+		List<String> route = routes.get(key(town1, town2));
+		if (route == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return new ArrayList<>(route);
+	}
+
+	/**
+	 * @param town1      name of the first town
+	 * @param town2      name of the second town
+	 * @param route      the path between them
+	 * @param generation the generation read before the path was computed
+	 */
+	synchronized void put(String town1, String town2, List<String> route, long generation) {
+		if (generation == this.generation) {
+			routes.put(key(town1, town2), Collections.unmodifiableList(new ArrayList<>(route)));
+		}
+	}
+
+	/**
+	 * Drops every cached path. Called whenever the graph changes.
+	 */
+	synchronized void clear() {
+		routes.clear();
+		generation++;
+	}
+
+	synchronized long generation() {
+		return generation;
+	}
+
+	synchronized long hits() {
+		return hits;
+	}
+
+	synchronized long misses() {
+		return misses;
+	}
+
+	synchronized int size() {
+		return routes.size();
+	}
+
+	/**
+	 * Keys on the pair of names rather than on a joined string, since a town
+	 * name may contain any character.
+	 */
+	private static List<String> key(String town1, String town2) {
+		return Arrays.asList(town1, town2);
+	}
+}
@@ -0,0 +1,139 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters of the work a graph does, updated by many threads at once
+ * without locks. Counters are LongAdders, which spread contended updates over
+ * several cells and add them up only when read. Query latencies go into a
+ * log-linear histogram: values are grouped by their highest set bit, and each
+ * group is split into eight buckets, so every bucket is within an eighth of the
+ * values it holds, from nanoseconds up to hours, in a fixed 512 counters.
+ *
+ * A graph keeps no instance while metrics are off, so the hot paths then pay
+ * only a read of a null field.
+ */
+class RoutingMetrics {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int BUCKETS = 64 * SUB_BUCKETS;
+
+	private final long started = System.nanoTime();
+	private final LongAdder queries = new LongAdder();
+	private final LongAdder queryNanos = new LongAdder();
+	private final LongAdder settled = new LongAdder();
+	private final LongAdder relaxed = new LongAdder();
+	private final LongAdder pushes = new LongAdder();
+	private final LongAdder pops = new LongAdder();
+	private final LongAdder treeCacheHits = new LongAdder();
+	private final LongAdder treeCacheMisses = new LongAdder();
+	private final LongAdder routeCacheHits = new LongAdder();
+	private final LongAdder routeCacheMisses = new LongAdder();
+	private final LongAdder allPairsAnswers = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder roadsLoaded = new LongAdder();
+	private final LongAdder loadNanos = new LongAdder();
+	private final LongAdder mutations = new LongAdder();
+	private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Records one answered shortest path query.
+	 */
+	void query(long nanos) {
+		queries.increment();
+		queryNanos.add(nanos);
+		latencies.incrementAndGet(bucket(nanos));
+	}
+
+	/**
+	 * Records the work of a search from the counts of its heap: every id polled
+	 * was settled, and every insert or key decrease was a relaxed arc.
+	 */
+	void searched(IndexedDaryHeap heap) {
+		settled.add(heap.pops());
+		relaxed.add(heap.pushes() + heap.decreases());
+		pushes.add(heap.pushes());
+		pops.add(heap.pops());
+	}
+
+	/**
+	 * Records arcs relaxed by a search that keeps no heap.
+	 */
+	void relaxed(long arcs) {
+		relaxed.add(arcs);
+	}
+
+	void treeCache(boolean hit) {
+		(hit ? treeCacheHits : treeCacheMisses).increment();
+	}
+
+	void routeCache(boolean hit) {
+		(hit ? routeCacheHits : routeCacheMisses).increment();
+	}
+
+	/**
+	 * Records a query answered from the all-pairs table.
+	 */
+	void allPairs() {
+		allPairsAnswers.increment();
+	}
+
+	/**
+	 * Records one bulk load.
+	 *
+	 * @param roads the number of roads it added
+	 * @param nanos how long it took, reading included
+	 */
+	void loaded(long roads, long nanos) {
+		loads.increment();
+		roadsLoaded.add(roads);
+		loadNanos.add(nanos);
+	}
+
+	/**
+	 * Records changes to the graph, counting each town and road added or removed.
+	 */
+	void mutated(long changes) {
+		mutations.add(changes);
+	}
+
+	/**
+	 * @return the counters as they stand, read one after the other, so figures
+	 *         updated during the call may be off by the updates in flight
+	 */
+	GraphMetrics snapshot() {
+		long[] histogram = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			histogram[i] = latencies.get(i);
+		}
+		return new GraphMetrics(System.nanoTime() - started, queries.sum(), queryNanos.sum(), histogram,
+				settled.sum(), relaxed.sum(), pushes.sum(), pops.sum(), treeCacheHits.sum(), treeCacheMisses.sum(),
+				routeCacheHits.sum(), routeCacheMisses.sum(), allPairsAnswers.sum(), loads.sum(), roadsLoaded.sum(),
+				loadNanos.sum(), mutations.sum());
+	}
+
+	/**
+	 * @return the histogram bucket of a value: the value itself below eight,
+	 *         otherwise eight buckets per power of two
+	 */
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) Math.max(value, 0);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return the largest value that falls in a bucket
+	 */
+	static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+		return lowest + width - 1;
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ * The algorithms {@link Graph#shortestPath(Town, Town)} can use to answer a
+ * point-to-point query. All of them return a shortest path; when several paths
+ * tie they may pick different ones.
+ */
+public enum SearchStrategy {
+	/**
+	 * Dijkstra's algorithm from the source, stopping once the destination is
+	 * settled.
+	 */
+	DIJKSTRA,
+
+	/**
+	 * Dijkstra's algorithm run from the source and from the destination at the
+	 * same time, stopping when the two searches meet. Roads are undirected, so the
+	 * backward search walks the same adjacency as the forward one.
+	 */
+	BIDIRECTIONAL,
+
+	/**
+	 * A* search guided by the great-circle distance to the destination. Falls
+	 * back to {@link #DIJKSTRA} unless every town that has a road also has
+	 * coordinates.
+	 */
+	A_STAR,
+
+	/**
+	 * Upward bidirectional search in a contraction hierarchy built with
+	 * {@link Graph#buildContractionHierarchy()}. Falls back to {@link #DIJKSTRA}
+	 * while no hierarchy matches the current graph.
+	 */
+	CONTRACTION_HIERARCHIES
+}
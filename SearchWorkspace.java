@@ -0,0 +1,189 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Arrays for one shortest path search at a time over vertex ids, kept from one
+ * search to the next. Entries of ids a search has not reached hold
+ * Integer.MAX_VALUE as distance, -1 as predecessor and no road; a search writes
+ * only the entries of ids it reaches, through {@link #reach(int, int, int, Road)},
+ * which lists them, and {@link #reset()} puts back just those. A search
+ * therefore costs time in proportion to the part of the graph it reaches, not
+ * to the size of the graph, and allocates nothing.
+ */
+class SearchWorkspace {
+	final int[] distance;
+	final int[] previousVertex;
+	final Road[] previousRoad;
+	final IndexedDaryHeap queue;
+	private final int[] touched;
+	private int touchedCount;
+	private int[] scratch;
+
+	/**
+	 * Told of every id a search settles.
+	 */
+	interface Settled {
+		/**
+		 * @param id the id just settled, whose distance is now final
+		 * @return true to stop the search
+		 */
+		boolean settle(int id);
+	}
+
+	/**
+	 * Workspaces not in use, shared by searches that run in parallel. A search
+	 * takes one, or a new one if none is free, and gives it back reset, so at
+	 * most one is ever allocated per worker. The workspaces keep no roads, as the
+	 * tables built this way need only distances and predecessors.
+	 */
+	static final class Pool {
+		private final ConcurrentLinkedQueue<SearchWorkspace> idle = new ConcurrentLinkedQueue<>();
+		private final int capacity;
+
+		/**
+		 * @param capacity capacity of the workspaces of the pool
+		 */
+		Pool(int capacity) {
+			this.capacity = capacity;
+		}
+
+		SearchWorkspace take() {
+			SearchWorkspace workspace = idle.poll();
+			return workspace == null ? new SearchWorkspace(capacity, false) : workspace;
+		}
+
+		void give(SearchWorkspace workspace) {
+			workspace.reset();
+			idle.offer(workspace);
+		}
+	}
+
+	/**
+	 * @param capacity one more than the largest id that will be searched
+	 */
+	SearchWorkspace(int capacity) {
+		this(capacity, true);
+	}
+
+	/**
+	 * @param capacity one more than the largest id that will be searched
+	 * @param roads    false to keep no roads, previousRoad then being null
+	 */
+	SearchWorkspace(int capacity, boolean roads) {
+		distance = new int[capacity];
+		previousVertex = new int[capacity];
+		previousRoad = roads ? new Road[capacity] : null;
+		queue = new IndexedDaryHeap(capacity);
+		touched = new int[capacity];
+		Arrays.fill(distance, Integer.MAX_VALUE);
+		Arrays.fill(previousVertex, -1);
+	}
+
+	int capacity() {
+		return distance.length;
+	}
+
+	/**
+	 * Starts a search from a source: reaches it at distance 0, queues it, and
+	 * sets the counts of the queue back to zero so they report this search
+	 * alone.
+	 *
+	 * @param source id of the source vertex
+	 */
+	void start(int source) {
+		queue.resetCounts();
+		reach(source, 0, -1, null);
+		queue.offer(source, 0);
+	}
+
+	/**
+	 * Records a new distance and predecessor for an id, listing the id for reset
+	 * the first time it is reached.
+	 */
+	void reach(int id, int newDistance, int previous, Road road) {
+		if (distance[id] == Integer.MAX_VALUE) {
+			touched[touchedCount++] = id;
+		}
+		distance[id] = newDistance;
+		previousVertex[id] = previous;
+		if (previousRoad != null) {
+			previousRoad[id] = road;
+		}
+	}
+
+	/**
+	 * @return an array for one more value per reached id, such as the estimates
+	 *         of A* or the first hops of the all-pairs table, allocated on first
+	 *         use; entries of ids not reached are meaningless
+	 */
+	int[] scratch() {
+		if (scratch == null) {
+			scratch = new int[capacity()];
+		}
+		return scratch;
+	}
+
+	/**
+	 * @return true if the search has reached the id
+	 */
+	boolean reached(int id) {
+		return distance[id] != Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Runs Dijkstra's algorithm from the ids queued by {@link #start(int)},
+	 * lowering keys in place, until the queue is empty or the listener stops it.
+	 *
+	 * @param view    the adjacency to search
+	 * @param settled told of each settled id, or null to settle every reachable id
+	 */
+	void dijkstra(AdjacencyView view, Settled settled) {
+		boolean roads = previousRoad != null;
+		while (!queue.isEmpty()) {
+			int visiting = queue.poll();
+			if (settled != null && settled.settle(visiting)) {
+				return;
+			}
+			int base = distance[visiting];
+			for (int i = 0; i < view.degree(visiting); i++) {
+				int neighbor = view.neighbor(visiting, i);
+				int newDistance = base + view.weight(visiting, i);
+				if (newDistance < distance[neighbor]) {
+					reach(neighbor, newDistance, visiting, roads ? view.road(visiting, i) : null);
+					queue.offer(neighbor, newDistance);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param source   id of the source vertex
+	 * @param capacity length of the arrays of the tree, at most the capacity of
+	 *                 the workspace
+	 * @return copies of the distances, predecessors and roads as a tree from the
+	 *         source, unreached ids having no distance and no predecessor
+	 */
+	ShortestPathTree tree(int source, int capacity) {
+		return new ShortestPathTree(source, Arrays.copyOf(distance, capacity), Arrays.copyOf(previousVertex, capacity),
+				Arrays.copyOf(previousRoad, capacity));
+	}
+
+	/**
+	 * Puts back the entries of every id reached since the last reset and empties
+	 * the queue, in time proportional to the ids reached.
+	 */
+	void reset() {
+		for (int i = 0; i < touchedCount; i++) {
+			int id = touched[i];
+			distance[id] = Integer.MAX_VALUE;
+			previousVertex[id] = -1;
+		}
+		if (previousRoad != null) {
+			for (int i = 0; i < touchedCount; i++) {
+				previousRoad[touched[i]] = null;
+			}
+		}
+		touchedCount = 0;
+		queue.clear();
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * Result of a single-source Dijkstra search over vertex ids: the distance of
+ * every vertex from the source and the vertex and road it was reached through.
+ * Trees are never modified after the search that built them, so they can be
+ * cached and shared.
+ */
+class ShortestPathTree {
+	private final int source;
+	private final int[] distance;
+	private final int[] previousVertex;
+	private final Road[] previousRoad;
+
+	/**
+	 * @param source         id of the source vertex
+	 * @param distance       distance of each vertex, Integer.MAX_VALUE if unreached
+	 * @param previousVertex predecessor of each vertex, -1 for the source and
+	 *                       unreached vertices
+	 * @param previousRoad   road to the predecessor of each vertex
+	 */
+	ShortestPathTree(int source, int[] distance, int[] previousVertex, Road[] previousRoad) {
+		this.source = source;
+		this.distance = distance;
+		this.previousVertex = previousVertex;
+		this.previousRoad = previousRoad;
+	}
+
+	int source() {
+		return source;
+	}
+
+	/**
+	 * @return the predecessor ids, indexed by vertex id; not to be modified
+	 */
+	int[] previousVertices() {
+		return previousVertex;
+	}
+
+	/**
+	 * @return the roads to the predecessors, indexed by vertex id; not to be
+	 *         modified
+	 */
+	Road[] previousRoads() {
+		return previousRoad;
+	}
+
+	/**
+	 * @param id vertex id
+	 * @return distance from the source, or Integer.MAX_VALUE if unreachable
+	 */
+	int distance(int id) {
+		return distance[id];
+	}
+
+	/**
+	 * @param id vertex id
+	 * @return id of the vertex before it on the path from the source, or -1
+	 */
+	int previousVertex(int id) {
+		return previousVertex[id];
+	}
+
+	/**
+	 * @param id vertex id
+	 * @return road from the previous vertex, or null
+	 */
+	Road previousRoad(int id) {
+		return previousRoad[id];
+	}
+}
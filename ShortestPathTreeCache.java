@@ -0,0 +1,88 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of complete shortest path trees keyed by source
+ * vertex id and version of the graph, given by its modification count. A tree
+ * is only returned for the version it was built from, so a stale tree is never
+ * returned, and trees of older versions simply age out: a query against an
+ * older snapshot neither wipes the trees of newer versions nor is wiped by
+ * them. Each tree holds three arrays as long as the vertex id range, so memory
+ * is bounded by the capacity. All methods are synchronized so concurrent
+ * queries can share one cache.
+ */
+class ShortestPathTreeCache {
+	private final int capacity;
+	private final LinkedHashMap<Key, ShortestPathTree> trees;
+
+	/**
+	 * @param capacity the largest number of trees to keep
+	 */
+	ShortestPathTreeCache(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1.");
+		}
+		this.capacity = capacity;
+		this.trees = new LinkedHashMap<Key, ShortestPathTree>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, ShortestPathTree> eldest) {
+				return size() > ShortestPathTreeCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * @param source  id of the source vertex
+	 * @param version modification count of the graph
+	 * @return the cached tree from the source, or null if there is none for this
+	 *         version of the graph
+	 */
+	synchronized ShortestPathTree get(int source, long version) {
+		return trees.get(new Key(source, version));
+	}
+
+	/**
+	 * @param tree    a complete tree
+	 * @param version modification count of the graph the tree was built from
+	 */
+	synchronized void put(ShortestPathTree tree, long version) {
+		trees.put(new Key(tree.source(), version), tree);
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	synchronized int size() {
+		return trees.size();
+	}
+
+	/**
+	 * A source vertex id in one version of the graph.
+	 */
+	private static final class Key {
+		private final int source;
+		private final long version;
+
+		Key(int source, long version) {
+			this.source = source;
+			this.version = version;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return source == other.source && version == other.version;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * source + Long.hashCode(version);
+		}
+	}
+}
@@ -1,14 +1,41 @@
 public class Town implements Comparable<Town> {
 
+	private static final double EARTH_RADIUS_MILES = 3958.8;
+
 	private String name;
+	private final double latitude;
+	private final double longitude;
+	private final boolean hasCoordinates;
 
 	public Town(String name) {
 		this.name = name;
+		this.latitude = 0;
+		this.longitude = 0;
+		this.hasCoordinates = false;
+	}
 
+	/**
+	 * Creates a town with a location, used to steer A* searches. The location
+	 * cannot be changed afterwards: a graph moves a town by replacing it, see
+	 * {@link Graph#setCoordinates(Town, double, double)}. Coordinates take no
+	 * part in equals or hashCode.
+	 * 
+	 * @param name      name of the town
+	 * @param latitude  latitude in degrees
+	 * @param longitude longitude in degrees
+	 */
+	public Town(String name, double latitude, double longitude) {
+		this.name = name;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.hasCoordinates = true;
 	}
 
 	public Town(Town templateTown) {
 		name = templateTown.getName();
+		latitude = templateTown.latitude;
+		longitude = templateTown.longitude;
+		hasCoordinates = templateTown.hasCoordinates;
 	}
 
 	@Override
@@ -24,12 +51,49 @@ public class Town implements Comparable<Town> {
 		this.name = name;
 	}
 
+	public boolean hasCoordinates() {
+		return hasCoordinates;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	/**
+	 * Great-circle distance to another town, computed with the haversine formula.
+	 * 
+	 * @param other another town
+	 * @return the distance in miles, or 0 if either town has no coordinates
+	 */
+	public double distanceTo(Town other) {
+		if (!hasCoordinates || !other.hasCoordinates) {
+			return 0;
+		}
+		double dLatitude = Math.toRadians(other.latitude - latitude);
+		double dLongitude = Math.toRadians(other.longitude - longitude);
+		double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2) + Math.cos(Math.toRadians(latitude))
+				* Math.cos(Math.toRadians(other.latitude)) * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+		return 2 * EARTH_RADIUS_MILES * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
 	public String toString() {
 		return getName();
 	}
 
+	/**
+	 * Case-insensitive hash, consistent with equals. Computed character by
+	 * character so no lower-cased copy of the name is allocated.
+	 */
 	public int hashCode() {
-		return name.toLowerCase().hashCode();
+		int hash = 0;
+		for (int i = 0; i < name.length(); i++) {
+			hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+		}
+		return hash;
 	}
 
 	public boolean equals(Object obj) {
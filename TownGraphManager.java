@@ -1,17 +1,30 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 public class TownGraphManager implements TownGraphManagerInterface {
+	private static final int STREAM_CHUNK = 4096;
+
 	Graph graph;
+	private Map<String, Town> towns;
+	private volatile RouteCache routeCache;
 
 	/**
 	 * Constructor for TownGraphManager
 	 */
 	public TownGraphManager() {
 		this.graph = new Graph();
+		this.towns = new ConcurrentHashMap<>();
 	}
 
 	@Override
@@ -24,48 +37,59 @@ public class TownGraphManager implements TownGraphManagerInterface {
 			return false;
 		}
 
-		graph.addEdge(source, dest, weight, roadName);
+		if (graph.addEdge(source, dest, weight, roadName) != null) {
+			graphChanged();
+		}
 		return true;
 
 	}
 
 	@Override
 	public String getRoad(String town1, String town2) {
-		for (Road road : graph.edgeSet()) {
-			if ((road.getSource().getName().equals(town1) && road.getDestination().getName().equals(town2))
-					|| (road.getSource().getName().equals(town2) && road.getDestination().getName().equals(town1))) {
-				return road.getName();
-			}
-		}
-		return null;
+		Road road = graph.getEdge(getTown(town1), getTown(town2));
+		return road == null ? null : road.getName();
 	}
 
 	public boolean addTown(String v) {
-		Town town = new Town(v);
-		return this.graph.addVertex(town);
+		return addTown(new Town(v));
+	}
+
+	/**
+	 * Adds a town with a location to the graph. If the town is already there it
+	 * is given the location. Either way the graph changes once, so a new town
+	 * is never seen without its location.
+	 * 
+	 * @param v         the town's name
+	 * @param latitude  latitude in degrees
+	 * @param longitude longitude in degrees
+	 * @return true if the town was added, false if it already existed
+	 */
+	public boolean addTown(String v, double latitude, double longitude) {
+		Town town = getTown(v);
+		if (town != null) {
+			towns.put(v, graph.setCoordinates(town, latitude, longitude));
+			return false;
+		}
+		return addTown(new Town(v, latitude, longitude));
+	}
+
+	private boolean addTown(Town town) {
+		if (this.graph.addVertex(town)) {
+			towns.put(town.getName(), town);
+			graphChanged();
+			return true;
+		}
+		return false;
 	}
 
 	@Override
 	public Town getTown(String name) {
-		Town result = null;
-		if (containsTown(name) == true) {
-			for (Town town : this.graph.vertexSet()) {
-				if (town.getName().equals(name)) {
-					result = town;
-				}
-			}
-		}
-		return result;
+		return name == null ? null : towns.get(name);
 	}
 
 	@Override
 	public boolean containsTown(String v) {
-		for (Town town : this.graph.vertexSet()) {
-			if (town.getName().equals(v)) {
-				return true;
-			}
-		}
-		return false;
+		return v != null && towns.containsKey(v);
 	}
 
 	/**
@@ -78,12 +102,7 @@ public class TownGraphManager implements TownGraphManagerInterface {
 
 	@Override
 	public boolean containsRoadConnection(String town1, String town2) {
-		for (Road road : graph.edgeSet()) {
-			if ((road.getSource().getName().equals(town1) && road.getDestination().getName().equals(town2))
-					|| (road.getSource().getName().equals(town2) && road.getDestination().getName().equals(town1)))
-				return true;
-		}
-		return false;
+		return graph.containsEdge(getTown(town1), getTown(town2));
 	}
 
 	/**
@@ -115,10 +134,11 @@ public class TownGraphManager implements TownGraphManagerInterface {
 	public boolean deleteRoadConnection(String town1, String town2, String road) {
 		Town t1 = getTown(town1);
 		Town t2 = getTown(town2);
-		if (containsRoadConnection(town1, town2)) {
-
-			Road a_road = graph.getEdge(t1, t2);
-			graph.removeEdge(t1, t2, a_road.getWeight(), road);
+		Road a_road = graph.getEdge(t1, t2);
+		if (a_road != null) {
+			if (graph.removeEdge(t1, t2, a_road.getWeight(), road) != null) {
+				graphChanged();
+			}
 			return true;
 		}
 		return false;
@@ -133,7 +153,12 @@ public class TownGraphManager implements TownGraphManagerInterface {
 	@Override
 	public boolean deleteTown(String v) {
 		Town town = getTown(v);
-		return graph.removeVertex(town);
+		if (graph.removeVertex(town)) {
+			towns.remove(v);
+			graphChanged();
+			return true;
+		}
+		return false;
 	}
 
 	/**
@@ -169,36 +194,426 @@ public class TownGraphManager implements TownGraphManagerInterface {
 		if (source == null || destination == null) {
 			return new ArrayList<>();
 		}
-		return graph.shortestPath(source, destination);
+		RouteCache cache = routeCache;
+		if (cache == null) {
+			return graph.shortestPath(source, destination);
+		}
+		ArrayList<String> path = cache.get(town1, town2);
+		RoutingMetrics metrics = graph.metrics();
+		if (metrics != null) {
+			metrics.routeCache(path != null);
+		}
+		if (path == null) {
+			long generation = cache.generation();
+			path = graph.shortestPath(source, destination);
+			cache.put(town1, town2, path, generation);
+		}
+		return path;
 	}
 
-	public void populateTownGraph(File selectedFile) throws FileNotFoundException {
-		List<String> inList = new ArrayList<>();
+	/**
+	 * Returns the shortest path from town 1 to town 2 as its towns and roads,
+	 * with the total distance. Routes are not kept in the route cache.
+	 * 
+	 * @param town1 name of town 1
+	 * @param town2 name of town 2
+	 * @return the route, or null if either town does not exist or they are not
+	 *         connected
+	 */
+	public Route getRoute(String town1, String town2) {
+		Town source = getTown(town1);
+		Town destination = getTown(town2);
+		if (source == null || destination == null) {
+			return null;
+		}
+		return graph.route(source, destination);
+	}
+
+	/**
+	 * Returns a table of travel distances between two sets of towns, computed in
+	 * parallel with one search per source town.
+	 * 
+	 * @param sources names of the towns the rows start from
+	 * @param targets names of the towns the columns end at
+	 * @return the distance from sources.get(i) to targets.get(j) at [i][j], -1 if
+	 *         the towns are not connected or one of them does not exist
+	 */
+	public int[][] getDistanceMatrix(List<String> sources, List<String> targets) {
+		return graph.distanceMatrix(towns(sources), towns(targets));
+	}
 
+	/**
+	 * Turns on caching of the paths getPath returns, keyed by the two town names.
+	 * The least recently used path is dropped when the cache is full. Adding or
+	 * deleting a town or road empties the cache.
+	 * 
+	 * @param capacity the number of paths to keep, or 0 to turn caching off
+	 */
+	public void setRouteCacheCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity cannot be negative.");
+		}
+		routeCache = capacity == 0 ? null : new RouteCache(capacity);
+	}
+
+	/**
+	 * @return the number of getPath calls answered from the route cache
+	 */
+	public long getRouteCacheHits() {
+		return routeCache == null ? 0 : routeCache.hits();
+	}
+
+	/**
+	 * @return the number of getPath calls the route cache could not answer
+	 */
+	public long getRouteCacheMisses() {
+		return routeCache == null ? 0 : routeCache.misses();
+	}
+
+	/**
+	 * Turns counting of routing and loading work on or off, for the graph and the
+	 * route cache together. See {@link Graph#setMetricsEnabled(boolean)}.
+	 * 
+	 * @param enabled true to count, false to stop and drop the counts
+	 */
+	public void setMetricsEnabled(boolean enabled) {
+		graph.setMetricsEnabled(enabled);
+	}
+
+	/**
+	 * @return the counts since metrics were turned on or last reset, including
+	 *         route cache hits and the throughput of populateTownGraph, loadGraph
+	 *         and addRoads, or null if metrics are off
+	 */
+	public GraphMetrics getMetrics() {
+		return graph.getMetrics();
+	}
+
+	/**
+	 * Selects the algorithm getPath uses to find the shortest path between two
+	 * towns. Bidirectional search settles fewer towns on long-distance queries.
+	 * 
+	 * @param searchStrategy the algorithm to use
+	 */
+	public void setSearchStrategy(SearchStrategy searchStrategy) {
+		graph.setSearchStrategy(searchStrategy);
+	}
+
+	/**
+	 * Preprocesses the current road network so getPath can answer queries with
+	 * {@link SearchStrategy#CONTRACTION_HIERARCHIES}.
+	 */
+	public void buildContractionHierarchy() {
+		graph.buildContractionHierarchy();
+	}
+
+	/**
+	 * Reads roads from a file, one per line, in the format
+	 * roadName,weight;sourceTown;destinationTown. A line may carry the locations
+	 * of both towns in two more fields, as in
+	 * roadName,weight;sourceTown;destinationTown;lat,lon;lat,lon. The file is
+	 * streamed, and its roads are added as they are read in batches of a few
+	 * thousand, as for {@link #addRoads(RoadBatch)}, so memory use does not grow
+	 * with the size of the file. The whole file counts as one load in the
+	 * metrics.
+	 * 
+	 * @param selectedFile the file to read
+	 * @throws FileNotFoundException if the file does not exist
+	 * @throws IOException           if the file cannot be read or a line is
+	 *                               malformed; the roads before it are kept
+	 */
+	public void populateTownGraph(File selectedFile) throws IOException {
 		if (!selectedFile.exists())
 			throw new FileNotFoundException();
 
-		Scanner inFile = new Scanner(selectedFile);
+		Batch batch = new Batch(STREAM_CHUNK, System.nanoTime());
+		try {
+			RoadFileReader.read(selectedFile.toPath(), road -> {
+				int source = batch.town(road.source);
+				int destination = batch.town(road.destination);
+				if (road.located) {
+					batch.locate(source, road.sourceLatitude, road.sourceLongitude);
+					batch.locate(destination, road.destinationLatitude, road.destinationLongitude);
+				}
+				batch.road(source, destination, road.weight, road.name);
+				if (batch.size() == STREAM_CHUNK) {
+					batch.commit();
+				}
+			});
+		} finally {
+			batch.finish();
+		}
+	}
+
+	/**
+	 * Adds a batch of roads as one change to the graph, creating their towns as
+	 * needed. The result is the same as calling addTown for both towns and then
+	 * addRoad for each road in order, but each distinct town name is looked up
+	 * only once and every road is checked for a duplicate only once, so the time
+	 * grows linearly with the size of the batch. A road between two towns that
+	 * are already joined is skipped, as is a road with a town whose name differs
+	 * only in case from a town already in the graph.
+	 * 
+	 * @param batch the roads to add
+	 * @return the number of roads added
+	 */
+	public int addRoads(RoadBatch batch) {
+		Batch resolved = new Batch(batch.size(), System.nanoTime());
+		for (int i = 0; i < batch.size(); i++) {
+			int source = resolved.town(batch.source(i));
+			int destination = resolved.town(batch.destination(i));
+			resolved.road(source, destination, batch.weight(i), batch.name(i));
+		}
+		return (int) resolved.finish();
+	}
+
+	/**
+	 * Reads roads from a file in the format of {@link #populateTownGraph(File)},
+	 * parsing it on all cores. The file is split into chunks at line breaks and
+	 * the chunks are parsed in parallel; the roads are then added in file order
+	 * as one change to the graph, so the result is the same as populateTownGraph
+	 * gives, only faster for large files.
+	 * 
+	 * @param selectedFile the file to read
+	 * @throws FileNotFoundException if the file does not exist
+	 * @throws IOException           if the file cannot be read or a line is
+	 *                               malformed; the roads before it are kept
+	 */
+	public void populateTownGraphParallel(File selectedFile) throws IOException {
+		if (!selectedFile.exists())
+			throw new FileNotFoundException();
+
+		long start = System.nanoTime();
+		List<RoadBuffer> buffers = ParallelRoadLoader.read(selectedFile.toPath(), ForkJoinPool.commonPool());
+		int count = 0;
+		for (RoadBuffer buffer : buffers) {
+			count += buffer.size;
+		}
+		Batch batch = new Batch(count, start);
+		for (RoadBuffer buffer : buffers) {
+			for (int i = 0; i < buffer.size; i++) {
+				int source = batch.town(buffer.sources[i]);
+				int destination = batch.town(buffer.destinations[i]);
+				if (buffer.located(i)) {
+					batch.locate(source, buffer.coordinates[i * 4], buffer.coordinates[i * 4 + 1]);
+					batch.locate(destination, buffer.coordinates[i * 4 + 2], buffer.coordinates[i * 4 + 3]);
+				}
+				batch.road(source, destination, buffer.weights[i], buffer.names[i]);
+			}
+		}
+		batch.finish();
+
+		IOException failure = buffers.isEmpty() ? null : buffers.get(buffers.size() - 1).failure;
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Writes the road network to a compact binary image that
+	 * {@link #loadGraph(File)} reads back far faster than a road file can be
+	 * parsed.
+	 * 
+	 * @param file the file to write, replaced if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public void saveGraph(File file) throws IOException {
+		graph.save(file);
+	}
+
+	/**
+	 * Adds the towns and roads of an image written by {@link #saveGraph(File)},
+	 * with the same rules as {@link #populateTownGraph(File)}.
+	 * 
+	 * @param file the image to read
+	 * @throws FileNotFoundException if the file does not exist
+	 * @throws IOException           if the file cannot be read or is not a graph
+	 *                               image
+	 */
+	public void loadGraph(File file) throws IOException {
+		if (!file.exists())
+			throw new FileNotFoundException();
+
+		long start = System.nanoTime();
+		GraphImage image = GraphImage.read(file.toPath());
+		Batch batch = new Batch(image.sources.length, start);
+		int[] index = new int[image.towns.length];
+		for (int i = 0; i < index.length; i++) {
+			Town town = image.towns[i];
+			index[i] = batch.town(town.getName());
+			if (town.hasCoordinates()) {
+				batch.locate(index[i], town.getLatitude(), town.getLongitude());
+			}
+		}
+		for (int i = 0; i < image.sources.length; i++) {
+			batch.road(index[image.sources[i]], index[image.destinations[i]], image.weights[i], image.names[i]);
+		}
+		batch.finish();
+	}
 
-		while (inFile.hasNextLine()) {
-			inList.add(inFile.nextLine());
+	private List<Town> towns(List<String> names) {
+		List<Town> list = new ArrayList<>(names.size());
+		for (String name : names) {
+			list.add(getTown(name));
 		}
+		return list;
+	}
 
-		for (String line : inList) {
-			String[] currentLine = line.split(";");
-			int commaIndex = currentLine[0].indexOf(",");
-			String roadName = currentLine[0].substring(0, commaIndex);
-			String weight = currentLine[0].substring(commaIndex + 1, currentLine[0].length());
-			String source = currentLine[1];
-			String destination = currentLine[2];
+	private void graphChanged() {
+		RouteCache cache = routeCache;
+		if (cache != null) {
+			cache.clear();
+		}
+	}
 
-			addTown(source);
-			addTown(destination);
+	/**
+	 * Roads gathered to be added to the graph as one modification. Each town name
+	 * is resolved once, by the rules addTown and addRoad apply one road at a
+	 * time: a name in use gives its town, a new name a new town, and a name that
+	 * differs only in case from a town in use gives none, so its roads are
+	 * skipped. Committing a batch empties it so it can be filled again; a load
+	 * may commit several times as it reads, and finishing the batch commits
+	 * what is left and counts the whole load as one for the metrics, timed from
+	 * when reading its roads began.
+	 */
+	private final class Batch {
+		private final List<Town> vertices = new ArrayList<>();
+		private final Map<String, Integer> indices;
+		private final Map<String, Town> added = new LinkedHashMap<>();
+		private final Set<Town> pending = new HashSet<>();
+		private final long started;
+		private long roadsAdded;
+		private int[] sources;
+		private int[] destinations;
+		private int[] weights;
+		private String[] names;
+		private int count;
 
-			addRoad(source, destination, Integer.parseInt(weight), roadName);
+		Batch(int capacity, long started) {
+			this.started = started;
+			indices = new HashMap<>(capacity);
+			sources = new int[capacity];
+			destinations = new int[capacity];
+			weights = new int[capacity];
+			names = new String[capacity];
 		}
 
-		inFile.close();
+		/**
+		 * @param name name of a town
+		 * @return the town's position in the batch, or -1 if the name cannot be
+		 *         used
+		 */
+		int town(String name) {
+			if (name == null) {
+				return -1;
+			}
+			Integer index = indices.get(name);
+			if (index != null) {
+				return index;
+			}
+			Town town = towns.get(name);
+			if (town == null) {
+				Town candidate = new Town(name);
+				if (!graph.containsVertex(candidate) && pending.add(candidate)) {
+					town = candidate;
+					added.put(name, town);
+				}
+			}
+			int position = -1;
+			if (town != null) {
+				position = vertices.size();
+				vertices.add(town);
+			}
+			indices.put(name, position);
+			return position;
+		}
+
+		/**
+		 * Gives a town of the batch a location, if it could be resolved, by
+		 * replacing it with an equal town at that location. A town already in the
+		 * graph is moved when the batch is committed, so readers of earlier
+		 * versions never see the change.
+		 */
+		void locate(int town, double latitude, double longitude) {
+			if (town == -1) {
+				return;
+			}
+			Town current = vertices.get(town);
+			if (current.hasCoordinates() && current.getLatitude() == latitude
+					&& current.getLongitude() == longitude) {
+				return;
+			}
+			Town located = new Town(current.getName(), latitude, longitude);
+			vertices.set(town, located);
+			added.put(located.getName(), located);
+		}
+
+		/**
+		 * Adds a road between two towns of the batch, unless either could not be
+		 * resolved.
+		 */
+		void road(int source, int destination, int weight, String name) {
+			if (source == -1 || destination == -1) {
+				return;
+			}
+			if (count == sources.length) {
+				int capacity = Math.max(16, count * 2);
+				sources = Arrays.copyOf(sources, capacity);
+				destinations = Arrays.copyOf(destinations, capacity);
+				weights = Arrays.copyOf(weights, capacity);
+				names = Arrays.copyOf(names, capacity);
+			}
+			sources[count] = source;
+			destinations[count] = destination;
+			weights[count] = weight;
+			names[count] = name;
+			count++;
+		}
+
+		/**
+		 * @return the number of roads in the batch
+		 */
+		int size() {
+			return count;
+		}
 
+		/**
+		 * Adds the new towns and the roads to the graph and empties the batch. An
+		 * empty batch leaves the graph alone.
+		 * 
+		 * @return the number of roads added
+		 */
+		int commit() {
+			if (vertices.isEmpty() && count == 0) {
+				return 0;
+			}
+			int edges = graph.addAll(vertices, sources, destinations, weights, names, count);
+			roadsAdded += edges;
+			towns.putAll(added);
+			if (edges > 0 || !added.isEmpty()) {
+				graphChanged();
+			}
+			vertices.clear();
+			indices.clear();
+			added.clear();
+			pending.clear();
+			Arrays.fill(names, 0, count, null);
+			count = 0;
+			return edges;
+		}
+
+		/**
+		 * Commits what is left and records the load in the metrics.
+		 * 
+		 * @return the number of roads added by all commits of the batch
+		 */
+		long finish() {
+			commit();
+			RoutingMetrics metrics = graph.metrics();
+			if (metrics != null) {
+				metrics.loaded(roadsAdded, System.nanoTime() - started);
+			}
+			return roadsAdded;
+		}
 	}
 }
\ No newline at end of file
@@ -1,9 +1,16 @@
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -134,4 +141,167 @@ class TownGraphManager_STUDENT_Test {
 		assertEquals(tgm.getPath("A", "C"), expected);
 	}
 
+	@Test
+	void testRouteCache() {
+		tgm.setRouteCacheCapacity(8);
+		tgm.addTown("A");
+		tgm.addTown("B");
+		tgm.addTown("C");
+		tgm.addRoad("A", "B", 5, "A-B");
+		tgm.addRoad("B", "C", 10, "B-C");
+		tgm.addRoad("A", "C", 20, "A-C");
+		tgm.getPath("A", "C").clear();
+		assertEquals(2, tgm.getPath("A", "C").size());
+		assertEquals(1, tgm.getRouteCacheHits());
+		assertEquals(1, tgm.getRouteCacheMisses());
+		tgm.deleteRoadConnection("A", "B", "A-B");
+		assertEquals(1, tgm.getPath("A", "C").size());
+		assertEquals(2, tgm.getRouteCacheMisses());
+	}
+
+	@Test
+	void testRouteCacheNamesWithSemicolons() {
+		tgm.setRouteCacheCapacity(8);
+		tgm.addTown("a;b");
+		tgm.addTown("c");
+		tgm.addTown("a");
+		tgm.addTown("b;c");
+		tgm.addRoad("a;b", "c", 5, "first");
+		tgm.addRoad("a", "b;c", 10, "second");
+		assertEquals("a;b via first to c 5 mi", tgm.getPath("a;b", "c").get(0));
+		assertEquals("a via second to b;c 10 mi", tgm.getPath("a", "b;c").get(0));
+		assertEquals(2, tgm.getRouteCacheMisses());
+	}
+
+	@Test
+	void testDistanceMatrix() throws Exception {
+		RoadNetworkGenerator generator = new RoadNetworkGenerator(RoadNetworkGenerator.Shape.RANDOM_GEOMETRIC, 500, 21);
+		File file = File.createTempFile("roads", ".txt");
+		file.deleteOnExit();
+		generator.write(file);
+		tgm.populateTownGraph(file);
+		tgm.addTown("Nowhere");
+		List<String> sources = new ArrayList<>();
+		List<String> targets = new ArrayList<>();
+		for (int i = 0; i < 500; i += 37) {
+			sources.add("Town_" + i);
+		}
+		for (int i = 0; i < 500; i += 11) {
+			targets.add("Town_" + i);
+		}
+		targets.add("Nowhere");
+		int[][] matrix = tgm.getDistanceMatrix(sources, targets);
+		for (int i = 0; i < sources.size(); i++) {
+			for (int j = 0; j < targets.size(); j++) {
+				Route route = tgm.getRoute(sources.get(i), targets.get(j));
+				assertEquals(route == null ? -1 : route.getDistance(), matrix[i][j]);
+			}
+		}
+	}
+
+	@Test
+	void testPopulateTownGraph() throws Exception {
+		File file = File.createTempFile("roads", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), "A-B,5;A;B\r\n\r\nB-C,10;B;C;39.0,-76.9;38.9,-77.0\nA-C,20;A;C".getBytes());
+		tgm.populateTownGraph(file);
+		assertEquals(3, tgm.allTowns().size());
+		assertEquals(3, tgm.allRoads().size());
+		assertTrue(tgm.getTown("C").hasCoordinates());
+		assertEquals(2, tgm.getPath("A", "C").size());
+	}
+
+	@Test
+	void testPopulateTownGraphLargeFile() throws Exception {
+		// More roads than one load commits at a time.
+		RoadNetworkGenerator generator = new RoadNetworkGenerator(RoadNetworkGenerator.Shape.HIGHWAY, 4000, 22);
+		File file = File.createTempFile("roads", ".txt");
+		file.deleteOnExit();
+		generator.write(file);
+		tgm.graph.setMetricsEnabled(true);
+		tgm.populateTownGraph(file);
+		assertEquals(1, tgm.graph.getMetrics().getLoads());
+		assertEquals(generator.getRoadCount(), tgm.graph.getMetrics().getRoadsLoaded());
+		Graph reference = new Graph();
+		Town[] towns = generator.addTo(reference);
+		assertTrue(generator.getRoadCount() > 4096);
+		assertEquals(4000, tgm.allTowns().size());
+		assertEquals(generator.getRoadCount(), tgm.allRoads().size());
+		for (int i = 0; i < 4000; i += 397) {
+			assertTrue(tgm.getTown(towns[i].getName()).hasCoordinates());
+			assertEquals(reference.route(towns[0], towns[i]).getDistance(),
+					tgm.getRoute(towns[0].getName(), towns[i].getName()).getDistance());
+		}
+	}
+
+	@Test
+	void testPopulateTownGraphParallel() throws Exception {
+		File file = File.createTempFile("roads", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), "A-B,5;A;B\r\n\r\nB-C,10;B;C;39.0,-76.9;38.9,-77.0\nA-C,20;A;C\nbad\nC-D,1;C;D".getBytes());
+		assertThrows(IOException.class, () -> tgm.populateTownGraphParallel(file));
+		assertEquals(3, tgm.allRoads().size());
+		assertFalse(tgm.containsTown("D"));
+		assertTrue(tgm.getTown("C").hasCoordinates());
+		assertEquals(2, tgm.getPath("A", "C").size());
+	}
+
+	@Test
+	void testSaveAndLoadGraph() throws Exception {
+		tgm.addTown("A");
+		tgm.addTown("B", 39.0, -76.9);
+		tgm.addRoad("A", "B", 5, "A-B");
+		File file = File.createTempFile("graph", ".img");
+		file.deleteOnExit();
+		tgm.saveGraph(file);
+		TownGraphManager loaded = new TownGraphManager();
+		loaded.loadGraph(file);
+		assertEquals(tgm.allTowns(), loaded.allTowns());
+		assertEquals("A-B", loaded.getRoad("B", "A"));
+		assertTrue(loaded.getTown("B").hasCoordinates());
+	}
+
+	@Test
+	void testAddRoads() {
+		tgm.addTown("a");
+		RoadBatch batch = new RoadBatch(4);
+		batch.add("B", "C", 5, "B-C").add("C", "D", 10, "C-D").add("D", "C", 7, "D-C").add("A", "B", 1, "A-B");
+		assertEquals(2, tgm.addRoads(batch));
+		assertEquals(4, tgm.allTowns().size());
+		assertEquals("C-D", tgm.getRoad("D", "C"));
+		assertFalse(tgm.containsTown("A"));
+		assertEquals(2, tgm.getPath("B", "D").size());
+	}
+
+	@Test
+	void testAddLocatedTown() {
+		long version = tgm.graph.snapshot().version();
+		assertTrue(tgm.addTown("A", 39.0, -76.9));
+		assertEquals(version + 1, tgm.graph.snapshot().version());
+		assertTrue(tgm.graph.snapshot().vertexSet().iterator().next().hasCoordinates());
+		assertFalse(tgm.addTown("A", 38.9, -77.0));
+		assertEquals(38.9, tgm.getTown("A").getLatitude());
+		assertFalse(tgm.addTown("a", 1.0, 1.0));
+		assertEquals(38.9, tgm.getTown("A").getLatitude());
+	}
+
+	@Test
+	void testGetRoute() {
+		tgm.addTown("A");
+		tgm.addTown("B");
+		tgm.addTown("C");
+		tgm.addTown("D");
+		tgm.addRoad("A", "B", 5, "A-B");
+		tgm.addRoad("B", "C", 10, "B-C");
+		Route route = tgm.getRoute("A", "C");
+		assertEquals(15, route.getDistance());
+		assertEquals(Arrays.asList(tgm.getTown("A"), tgm.getTown("B"), tgm.getTown("C")), route.getTowns());
+		assertEquals("B-C", route.getRoads().get(1).getName());
+		assertEquals(tgm.getPath("A", "C"), route.getDirections());
+		assertEquals("A via A-B to B 5 mi", route.getDirection(0));
+		assertEquals(0, tgm.getRoute("A", "A").getHopCount());
+		assertEquals(null, tgm.getRoute("A", "D"));
+		assertEquals(null, tgm.getRoute("A", "Z"));
+	}
+
 }